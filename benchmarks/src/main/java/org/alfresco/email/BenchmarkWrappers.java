@@ -0,0 +1,38 @@
+package org.alfresco.email;
+
+import org.alfresco.email.connection.ImapStorePool;
+import org.alfresco.email.connection.SmtpSendExecutor;
+import org.alfresco.email.connection.SmtpTransportPool;
+import org.alfresco.email.metrics.ProtocolMetrics;
+
+/**
+ * Creates the DSL wrappers of the benchmarks with only the beans the benchmarked calls use. The wrappers also autowire
+ * the TAS beans of a test context, which need an Alfresco server, so they cannot come from the Spring context of
+ * {@link org.alfresco.email.benchmarks.DslFixture}; this class is in their package to set the other ones.
+ */
+public final class BenchmarkWrappers
+{
+    private BenchmarkWrappers()
+    {
+    }
+
+    public static ImapWrapper newImapWrapper(EmailProperties emailProperties, ImapStorePool imapStorePool, ProtocolMetrics protocolMetrics)
+    {
+        ImapWrapper imap = new ImapWrapper();
+        imap.emailProperties = emailProperties;
+        imap.imapStorePool = imapStorePool;
+        imap.protocolMetrics = protocolMetrics;
+        return imap;
+    }
+
+    public static SmtpWrapper newSmtpWrapper(EmailProperties emailProperties, SmtpTransportPool smtpTransportPool, SmtpSendExecutor smtpSendExecutor,
+            ProtocolMetrics protocolMetrics)
+    {
+        SmtpWrapper smtp = new SmtpWrapper();
+        smtp.emailProperties = emailProperties;
+        smtp.smtpTransportPool = smtpTransportPool;
+        smtp.smtpSendExecutor = smtpSendExecutor;
+        smtp.protocolMetrics = protocolMetrics;
+        return smtp;
+    }
+}
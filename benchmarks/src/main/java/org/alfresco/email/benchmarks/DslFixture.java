@@ -0,0 +1,179 @@
+package org.alfresco.email.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.email.BenchmarkWrappers;
+import org.alfresco.email.EmailProperties;
+import org.alfresco.email.ImapWrapper;
+import org.alfresco.email.SmtpWrapper;
+import org.alfresco.email.connection.ImapStorePool;
+import org.alfresco.email.connection.SmtpSendExecutor;
+import org.alfresco.email.connection.SmtpTransportPool;
+import org.alfresco.email.metrics.ProtocolMetrics;
+import org.alfresco.utility.model.UserModel;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.annotation.QualifierAnnotationAutowireCandidateResolver;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.io.support.ResourcePropertySource;
+
+/**
+ * Creates the DSL wrappers for an {@link ImapCorpus} without the test context, which would also need an Alfresco server.
+ * A small Spring context holds the {@link ProtocolMetrics}, and every wrapper gets a child context with its own
+ * {@link EmailProperties}, filled from the given properties, <code>dsl-fixture.properties</code> and the
+ * <code>@Value</code> defaults, and its own {@link ImapStorePool}, or {@link SmtpTransportPool} and
+ * {@link SmtpSendExecutor}; see {@link BenchmarkWrappers}.
+ * IMAP and SMTP go through a {@link WireProxy} each, so the round trips, connections and bytes of every benchmarked call
+ * can be printed at the end of an iteration.
+ */
+public class DslFixture implements AutoCloseable
+{
+    private static final String PROPERTY_SOURCE = "dslFixture";
+    private static final String PROPERTIES_FILE = "classpath:dsl-fixture.properties";
+
+    private final ImapCorpus corpus;
+    private final WireProxy imapProxy;
+    private final WireProxy smtpProxy;
+    private final GenericApplicationContext context;
+    private final List<GenericApplicationContext> wrapperContexts = new ArrayList<>();
+    private final ProtocolMetrics protocolMetrics;
+    private long roundTrips;
+    private long connections;
+    private long bytesToServer;
+    private long bytesFromServer;
+
+    public DslFixture(ImapCorpus corpus) throws IOException
+    {
+        this.corpus = corpus;
+        imapProxy = new WireProxy(corpus.getHost(), corpus.getImapPort(), false);
+        smtpProxy = new WireProxy(corpus.getHost(), corpus.getSmtpPort(), false);
+        context = newContext(null, new HashMap<>(), ProtocolMetrics.class);
+        protocolMetrics = context.getBean(ProtocolMetrics.class);
+    }
+
+    public ProtocolMetrics getProtocolMetrics()
+    {
+        return protocolMetrics;
+    }
+
+    public UserModel getUser()
+    {
+        return new UserModel(ImapCorpus.USER, ImapCorpus.PASSWORD);
+    }
+
+    /**
+     * @param properties email properties that differ from the defaults, e.g. <code>imap.pool.enabled=false</code>
+     * @return an unconnected IMAP wrapper with its own store pool
+     */
+    public ImapWrapper newImapWrapper(Map<String, String> properties) throws IOException
+    {
+        GenericApplicationContext wrapperContext = newWrapperContext(properties, ImapStorePool.class);
+        return BenchmarkWrappers.newImapWrapper(wrapperContext.getBean(EmailProperties.class), wrapperContext.getBean(ImapStorePool.class),
+                protocolMetrics);
+    }
+
+    public ImapWrapper newImapWrapper() throws IOException
+    {
+        return newImapWrapper(new HashMap<>());
+    }
+
+    /**
+     * @param properties email properties that differ from the defaults, e.g. <code>smtp.pool.enabled=false</code>
+     * @return an unconnected SMTP wrapper with its own transport pool, that authenticates with the corpus user
+     */
+    public SmtpWrapper newSmtpWrapper(Map<String, String> properties) throws IOException
+    {
+        GenericApplicationContext wrapperContext = newWrapperContext(properties, SmtpTransportPool.class, SmtpSendExecutor.class);
+        return BenchmarkWrappers.newSmtpWrapper(wrapperContext.getBean(EmailProperties.class), wrapperContext.getBean(SmtpTransportPool.class),
+                wrapperContext.getBean(SmtpSendExecutor.class), protocolMetrics);
+    }
+
+    public SmtpWrapper newSmtpWrapper() throws IOException
+    {
+        return newSmtpWrapper(new HashMap<>());
+    }
+
+    /**
+     * Remembers the counters of both proxies at the start of an iteration
+     */
+    public void startIteration()
+    {
+        roundTrips = imapProxy.getRoundTrips() + smtpProxy.getRoundTrips();
+        connections = imapProxy.getConnections() + smtpProxy.getConnections();
+        bytesToServer = imapProxy.getBytesToServer() + smtpProxy.getBytesToServer();
+        bytesFromServer = imapProxy.getBytesFromServer() + smtpProxy.getBytesFromServer();
+    }
+
+    /**
+     * Prints the round trips, connections and bytes per operation since {@link #startIteration()}
+     */
+    public void printIteration(String benchmark, long operations)
+    {
+        if (operations == 0)
+            return;
+        System.out.printf("%n%s: %.2f round trips/op, %.3f connections/op, %d bytes/op to server, %d bytes/op from server%n",
+                benchmark.substring(benchmark.lastIndexOf('.') + 1),
+                (double) (imapProxy.getRoundTrips() + smtpProxy.getRoundTrips() - roundTrips) / operations,
+                (double) (imapProxy.getConnections() + smtpProxy.getConnections() - connections) / operations,
+                (imapProxy.getBytesToServer() + smtpProxy.getBytesToServer() - bytesToServer) / operations,
+                (imapProxy.getBytesFromServer() + smtpProxy.getBytesFromServer() - bytesFromServer) / operations);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (wrapperContexts)
+        {
+            for (GenericApplicationContext wrapperContext : wrapperContexts)
+                wrapperContext.close();
+            wrapperContexts.clear();
+        }
+        context.close();
+        imapProxy.close();
+        smtpProxy.close();
+    }
+
+    private GenericApplicationContext newWrapperContext(Map<String, String> properties, Class<?>... beans) throws IOException
+    {
+        GenericApplicationContext wrapperContext = newContext(context, properties, beans);
+        synchronized (wrapperContexts)
+        {
+            wrapperContexts.add(wrapperContext);
+        }
+        return wrapperContext;
+    }
+
+    /**
+     * The context only autowires and resolves the <code>@Value</code> placeholders: {@link EmailProperties} is not
+     * processed as a configuration class, so it does not look for the <code>default.properties</code> of a test run
+     */
+    private GenericApplicationContext newContext(ApplicationContext parent, Map<String, String> overrides, Class<?>... beans)
+            throws IOException
+    {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("imap.server", corpus.getHost());
+        properties.put("imap.port", String.valueOf(imapProxy.getPort()));
+        properties.put("smtp.server", corpus.getHost());
+        properties.put("smtp.port", String.valueOf(smtpProxy.getPort()));
+        properties.putAll(overrides);
+
+        GenericApplicationContext newContext = new GenericApplicationContext(parent);
+        MutablePropertySources propertySources = newContext.getEnvironment().getPropertySources();
+        propertySources.addFirst(new MapPropertySource(PROPERTY_SOURCE, properties));
+        if (!propertySources.contains(PROPERTIES_FILE))
+            propertySources.addLast(new ResourcePropertySource(PROPERTIES_FILE));
+        newContext.getDefaultListableBeanFactory().setAutowireCandidateResolver(new QualifierAnnotationAutowireCandidateResolver());
+        newContext.registerBean(AutowiredAnnotationBeanPostProcessor.class);
+        newContext.registerBean(EmailProperties.class);
+        for (Class<?> bean : beans)
+            newContext.registerBean(bean);
+        newContext.refresh();
+        return newContext;
+    }
+}
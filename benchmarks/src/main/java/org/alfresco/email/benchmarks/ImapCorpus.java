@@ -0,0 +1,183 @@
+package org.alfresco.email.benchmarks;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+
+/**
+ * In-process GreenMail IMAP, IMAPS and SMTP server seeded with a synthetic INBOX.
+ * Every {@link #MATCH_EVERY}th message has a subject starting with {@link #MATCHING_PREFIX}, all others start with "document-".
+ */
+public class ImapCorpus
+{
+    public static final String USER = "bench";
+    public static final String PASSWORD = "bench";
+    public static final String MATCHING_PREFIX = "report-";
+    public static final int MATCH_EVERY = 100;
+
+    private final GreenMail greenMail;
+    private final Session session;
+
+    public ImapCorpus(int messageCount) throws MessagingException
+    {
+        greenMail = new GreenMail(new ServerSetup[] { new ServerSetup(0, "127.0.0.1", ServerSetup.PROTOCOL_IMAP),
+                new ServerSetup(0, "127.0.0.1", ServerSetup.PROTOCOL_IMAPS), new ServerSetup(0, "127.0.0.1", ServerSetup.PROTOCOL_SMTP) });
+        greenMail.start();
+        GreenMailUser user = greenMail.setUser(USER + "@localhost", USER, PASSWORD);
+
+        session = Session.getInstance(new Properties());
+        for (int i = 0; i < messageCount; i++)
+            user.deliver(createMessage(subjectOf(i), "body of message " + i));
+    }
+
+    /**
+     * Subject of the i-th seeded message
+     */
+    public static String subjectOf(int i)
+    {
+        if (i % MATCH_EVERY == 0)
+            return String.format("%s%06d.pdf", MATCHING_PREFIX, i);
+        return String.format("document-%06d.txt", i);
+    }
+
+    public MimeMessage createMessage(String subject, String body) throws MessagingException
+    {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("sender@localhost"));
+        message.setRecipients(MimeMessage.RecipientType.TO, USER + "@localhost");
+        message.setSubject(subject);
+        message.setText(body);
+        return message;
+    }
+
+    /**
+     * Message with a text part and a binary attachment of <code>attachmentBytes</code>, like a document sent to Alfresco
+     */
+    public MimeMessage createMultipartMessage(String subject, String body, int attachmentBytes) throws MessagingException
+    {
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText(body);
+        MimeMultipart multipart = new MimeMultipart(text);
+        if (attachmentBytes > 0)
+        {
+            byte[] content = new byte[attachmentBytes];
+            Arrays.fill(content, (byte) 'x');
+            MimeBodyPart attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(content, "application/octet-stream")));
+            attachment.setFileName(subject + ".bin");
+            multipart.addBodyPart(attachment);
+        }
+        MimeMessage message = createMessage(subject, body);
+        message.setContent(multipart);
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * Creates the folder, e.g. with a DSL path like <code>Alfresco IMAP/Sites/site/documentLibrary</code>, and appends the messages.
+     * GreenMail uses '.' as separator, so a path with '/' is created as a single folder that the DSL finds by its full name.
+     */
+    public void createFolder(String fullName, Message... messages) throws MessagingException
+    {
+        Store store = connect();
+        try
+        {
+            Folder folder = store.getFolder(fullName);
+            if (!folder.exists())
+                folder.create(Folder.HOLDS_MESSAGES);
+            if (messages.length > 0)
+                folder.appendMessages(messages);
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    /**
+     * Deletes the folder with all its messages
+     */
+    public void deleteFolder(String fullName) throws MessagingException
+    {
+        Store store = connect();
+        try
+        {
+            Folder folder = store.getFolder(fullName);
+            if (folder.exists())
+                folder.delete(true);
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    /**
+     * Deletes all messages, e.g. the ones delivered by SMTP benchmarks
+     */
+    public void purge() throws FolderException
+    {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    public String getHost()
+    {
+        return "127.0.0.1";
+    }
+
+    public int getImapPort()
+    {
+        return greenMail.getImap().getPort();
+    }
+
+    /**
+     * GreenMail uses a self-signed certificate, so IMAPS clients have to trust this host
+     */
+    public int getImapsPort()
+    {
+        return greenMail.getImaps().getPort();
+    }
+
+    public int getSmtpPort()
+    {
+        return greenMail.getSmtp().getPort();
+    }
+
+    /**
+     * Opens a new, authenticated IMAP connection to the corpus
+     */
+    public Store connect() throws MessagingException
+    {
+        Store store = Session.getInstance(new Properties()).getStore("imap");
+        store.connect(getHost(), getImapPort(), USER, PASSWORD);
+        return store;
+    }
+
+    public Folder openInbox(Store store, int mode) throws MessagingException
+    {
+        Folder inbox = store.getFolder("INBOX");
+        inbox.open(mode);
+        return inbox;
+    }
+
+    public void stop()
+    {
+        greenMail.stop();
+    }
+}
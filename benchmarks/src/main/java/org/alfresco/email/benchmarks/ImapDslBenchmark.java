@@ -0,0 +1,243 @@
+package org.alfresco.email.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+import org.alfresco.email.ImapWrapper;
+import org.alfresco.email.dsl.imap.ImapUtil;
+import org.alfresco.email.dsl.imap.TextPartFetcher;
+import org.alfresco.utility.model.FolderModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Throughput of the {@link ImapWrapper} DSL calls the tests use most, on a site document library of <code>messages</code>
+ * messages. The round trips, connections and bytes per call are printed at the end of every iteration, run with
+ * <code>-prof gc</code> for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ImapDslBenchmark
+{
+    static final String DOCUMENT_LIBRARY = "Alfresco IMAP/Sites/bench/documentLibrary";
+    static final String CONTENT = DOCUMENT_LIBRARY + "/content";
+    static final String COPY_SOURCE = DOCUMENT_LIBRARY + "/copy-source";
+    static final String COPY_DESTINATION = DOCUMENT_LIBRARY + "/copy-destination";
+    private static final int CONTENT_MESSAGES = 20;
+    private static final int COPIED_MESSAGES = 100;
+
+    @Param({ "1000" })
+    int messages;
+
+    @Param({ "64" })
+    int attachmentKb;
+
+    ImapCorpus corpus;
+    DslFixture fixture;
+    private ImapWrapper imap;
+    private ContentReader contentReader;
+    private Folder documentLibrary;
+    private Message[] contentMessages;
+    private FolderModel copyDestination;
+    private int next;
+    private long operations;
+
+    /**
+     * Separate connections for {@link ImapDslBenchmark#authenticateUser}, with and without the store pool
+     */
+    @State(Scope.Benchmark)
+    public static class Connections
+    {
+        @Param({ "true", "false" })
+        boolean pool;
+
+        ImapWrapper imap;
+
+        @Setup(Level.Trial)
+        public void create(ImapDslBenchmark benchmark) throws IOException
+        {
+            Map<String, String> properties = new HashMap<>();
+            properties.put("imap.pool.enabled", String.valueOf(pool));
+            imap = benchmark.fixture.newImapWrapper(properties);
+        }
+    }
+
+    /**
+     * Gives access to the full-content read of {@link ImapUtil}
+     */
+    static class ContentReader extends ImapUtil
+    {
+        ContentReader(ImapWrapper imapProtocol)
+        {
+            super(imapProtocol);
+        }
+
+        String read(Message message) throws Exception
+        {
+            return getMessageContent(message);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception
+    {
+        corpus = new ImapCorpus(0);
+        Message[] documents = new Message[messages];
+        for (int i = 0; i < messages; i++)
+            documents[i] = corpus.createMessage(ImapCorpus.subjectOf(i), "body of message " + i);
+        corpus.createFolder(DOCUMENT_LIBRARY, documents);
+
+        Message[] content = new Message[CONTENT_MESSAGES];
+        for (int i = 0; i < CONTENT_MESSAGES; i++)
+            content[i] = corpus.createMultipartMessage("content-" + i, "text of message " + i, attachmentKb * 1024);
+        corpus.createFolder(CONTENT, content);
+
+        Message[] copied = new Message[COPIED_MESSAGES];
+        for (int i = 0; i < COPIED_MESSAGES; i++)
+            copied[i] = corpus.createMessage("copied-" + i, "body of message " + i);
+        corpus.createFolder(COPY_SOURCE, copied);
+
+        fixture = new DslFixture(corpus);
+        imap = fixture.newImapWrapper().authenticateUser(fixture.getUser());
+        imap.usingResource(folderModel(DOCUMENT_LIBRARY));
+        contentReader = new ContentReader(imap);
+        documentLibrary = imap.getFolderHandles().open(DOCUMENT_LIBRARY, Folder.READ_WRITE);
+        imap.withImapUtil().getMessageBySubject(documentLibrary, ImapCorpus.subjectOf(0));
+        contentMessages = imap.getFolderHandles().open(CONTENT, Folder.READ_ONLY).getMessages();
+        copyDestination = folderModel(COPY_DESTINATION);
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() throws MessagingException
+    {
+        corpus.deleteFolder(COPY_DESTINATION);
+        corpus.createFolder(COPY_DESTINATION);
+        operations = 0;
+        fixture.startIteration();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printRoundTrips(BenchmarkParams params)
+    {
+        fixture.printIteration(params.getBenchmark(), operations);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception
+    {
+        imap.disconnect();
+        fixture.close();
+        corpus.stop();
+    }
+
+    /**
+     * Lookup in the subject index that was built on the first call
+     */
+    @Benchmark
+    public Message getMessageBySubject() throws Exception
+    {
+        operations++;
+        return imap.withImapUtil().getMessageBySubject(documentLibrary, ImapCorpus.subjectOf(next++ % messages));
+    }
+
+    /**
+     * Lookup after the subject index was dropped, as on the first lookup of a connection
+     */
+    @Benchmark
+    public Message getMessageBySubjectColdIndex() throws Exception
+    {
+        operations++;
+        imap.getSubjectIndex(documentLibrary).invalidate();
+        return imap.withImapUtil().getMessageBySubject(documentLibrary, ImapCorpus.subjectOf(next++ % messages));
+    }
+
+    @Benchmark
+    public ImapWrapper searchSubjectFor() throws Exception
+    {
+        operations++;
+        return imap.searchSubjectFor(ImapCorpus.MATCHING_PREFIX);
+    }
+
+    @Benchmark
+    public ImapWrapper searchSubjectWithWildcardsFor() throws Exception
+    {
+        operations++;
+        return imap.searchSubjectWithWildcardsFor(ImapCorpus.MATCHING_PREFIX + "*.pdf");
+    }
+
+    /**
+     * Reads the content of every part, as {@link ImapUtil} does; the attachment becomes an unread stream
+     */
+    @Benchmark
+    public String getMessageContent() throws Exception
+    {
+        operations++;
+        return contentReader.read(contentMessages[next++ % CONTENT_MESSAGES]);
+    }
+
+    /**
+     * Reads only the text part, as the content assertions do
+     */
+    @Benchmark
+    public String fetchTextPart() throws Exception
+    {
+        operations++;
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = TextPartFetcher.fetchText(contentMessages[next++ % CONTENT_MESSAGES], 0))
+        {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1)
+                text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public ImapWrapper copyMessagesTo() throws Exception
+    {
+        operations++;
+        imap.setLastResource(COPY_SOURCE);
+        return imap.copyMessagesTo(copyDestination);
+    }
+
+    /**
+     * Connect, log in and disconnect; with the pool the connection is reused and only checked with a NOOP
+     */
+    @Benchmark
+    public ImapWrapper authenticateUser(Connections connections) throws Exception
+    {
+        operations++;
+        return connections.imap.authenticateUser(fixture.getUser()).disconnect();
+    }
+
+    private static FolderModel folderModel(String path)
+    {
+        FolderModel folder = new FolderModel(path.substring(path.lastIndexOf('/') + 1));
+        folder.setProtocolLocation(path);
+        return folder;
+    }
+}
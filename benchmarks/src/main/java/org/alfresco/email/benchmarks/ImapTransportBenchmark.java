@@ -0,0 +1,122 @@
+package org.alfresco.email.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+
+import org.alfresco.email.connection.ImapConnectionOptions;
+import org.alfresco.email.dsl.imap.ImapSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the IMAP connection modes of {@link ImapConnectionOptions}: plain IMAP, IMAPS and COMPRESS=DEFLATE.
+ * The client talks to GreenMail through a {@link WireProxy}, which counts the bytes on the wire and stands in for the
+ * COMPRESS=DEFLATE support GreenMail does not have. Besides the JMH latency, the bytes per operation in each direction
+ * are printed at the end of every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ImapTransportBenchmark
+{
+    @Param({ "PLAIN", "IMAPS", "COMPRESS" })
+    String mode;
+
+    @Param({ "1000" })
+    int messages;
+
+    private ImapCorpus corpus;
+    private WireProxy proxy;
+    private ImapConnectionOptions options;
+    private Store store;
+    private long operations;
+    private long bytesToServer;
+    private long bytesFromServer;
+
+    @Setup(Level.Trial)
+    public void seed() throws MessagingException, IOException
+    {
+        corpus = new ImapCorpus(messages);
+        boolean ssl = "IMAPS".equals(mode);
+        boolean compress = "COMPRESS".equals(mode);
+        proxy = new WireProxy(corpus.getHost(), ssl ? corpus.getImapsPort() : corpus.getImapPort(), compress);
+        options = new ImapConnectionOptions(ssl, "*", compress, -1);
+        store = connect();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters()
+    {
+        operations = 0;
+        bytesToServer = proxy.getBytesToServer();
+        bytesFromServer = proxy.getBytesFromServer();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCounters()
+    {
+        if (operations == 0)
+            return;
+        System.out.printf("%n%s: %d bytes/op to server, %d bytes/op from server%n", mode,
+                (proxy.getBytesToServer() - bytesToServer) / operations, (proxy.getBytesFromServer() - bytesFromServer) / operations);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws MessagingException, IOException
+    {
+        store.close();
+        proxy.close();
+        corpus.stop();
+    }
+
+    /**
+     * Connect, (TLS handshake,) LOGIN, (COMPRESS,) LOGOUT
+     */
+    @Benchmark
+    public void connectAndLogin() throws MessagingException
+    {
+        connect().close();
+        operations++;
+    }
+
+    /**
+     * SELECT and the envelopes of the whole INBOX, the bandwidth-bound part of most DSL lookups
+     */
+    @Benchmark
+    public Message[] fetchEnvelopes() throws MessagingException
+    {
+        Folder folder = corpus.openInbox(store, Folder.READ_ONLY);
+        Message[] all = folder.getMessages();
+        ImapSearch.fetchEnvelopes(folder, all);
+        folder.close(false);
+        operations++;
+        return all;
+    }
+
+    private Store connect() throws MessagingException
+    {
+        Store newStore = Session.getInstance(options.toSessionProperties()).getStore(options.getProtocol());
+        newStore.connect(corpus.getHost(), proxy.getPort(), ImapCorpus.USER, ImapCorpus.PASSWORD);
+        return newStore;
+    }
+}
@@ -0,0 +1,186 @@
+package org.alfresco.email.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.email.SmtpWrapper;
+import org.alfresco.email.dsl.smtp.BatchReport;
+import org.alfresco.email.dsl.smtp.ComposeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Throughput of the {@link SmtpWrapper} DSL against the GreenMail SMTP server. The round trips, connections and bytes
+ * per call are printed at the end of every iteration, run with <code>-prof gc</code> for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SmtpDslBenchmark
+{
+    private static final int BATCH_SIZE = 100;
+
+    ImapCorpus corpus;
+    DslFixture fixture;
+    private SmtpWrapper smtp;
+    private int next;
+    private long operations;
+
+    /**
+     * The attachment of {@link SmtpDslBenchmark#sendMail}
+     */
+    @State(Scope.Benchmark)
+    public static class Attachment
+    {
+        /** 0 for a text-only message */
+        @Param({ "0", "64" })
+        int attachmentKb;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void create() throws IOException
+        {
+            if (attachmentKb == 0)
+                return;
+            file = File.createTempFile("smtp-benchmark", ".bin");
+            try (RandomAccessFile content = new RandomAccessFile(file, "rw"))
+            {
+                content.setLength(attachmentKb * 1024L);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete()
+        {
+            if (file != null)
+                file.delete();
+        }
+    }
+
+    /**
+     * Separate connections for {@link SmtpDslBenchmark#authenticateUser}, with and without the transport pool
+     */
+    @State(Scope.Benchmark)
+    public static class Connections
+    {
+        @Param({ "true", "false" })
+        boolean pool;
+
+        SmtpWrapper smtp;
+
+        @Setup(Level.Trial)
+        public void create(SmtpDslBenchmark benchmark) throws IOException
+        {
+            Map<String, String> properties = new HashMap<>();
+            properties.put("smtp.pool.enabled", String.valueOf(pool));
+            smtp = benchmark.fixture.newSmtpWrapper(properties);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void connect() throws Exception
+    {
+        corpus = new ImapCorpus(0);
+        fixture = new DslFixture(corpus);
+        smtp = fixture.newSmtpWrapper().authenticateUser(fixture.getUser());
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration()
+    {
+        operations = 0;
+        fixture.startIteration();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printRoundTrips(BenchmarkParams params) throws Exception
+    {
+        fixture.printIteration(params.getBenchmark(), operations);
+        corpus.purge();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception
+    {
+        smtp.disconnect();
+        fixture.close();
+        corpus.stop();
+    }
+
+    /**
+     * Composes and sends one message on the connected transport: MAIL FROM, RCPT TO and DATA
+     */
+    @Benchmark
+    public SmtpWrapper sendMail(Attachment attachment) throws Exception
+    {
+        operations++;
+        ComposeMessage message = smtp.composeMessage().withRecipients(ImapCorpus.USER + "@localhost")
+                .withSubject("benchmark-" + next++).withBody("body of the benchmark message");
+        if (attachment.file != null)
+            message.withAttachments(attachment.file);
+        return message.sendMail();
+    }
+
+    /**
+     * {@value #BATCH_SIZE} text messages on the connected transport, pipelined if the server supports it
+     */
+    @Benchmark
+    public BatchReport sendBatch() throws Exception
+    {
+        operations++;
+        List<ComposeMessage> messages = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++)
+            messages.add(smtp.composeMessage().withRecipients(ImapCorpus.USER + "@localhost").withSubject("benchmark-" + next++)
+                    .withBody("body of the benchmark message"));
+        return smtp.sendBatch(messages);
+    }
+
+    /**
+     * {@value #BATCH_SIZE} text messages sent with <code>sendMailAsync</code> on the pooled transports of the send
+     * executor, the counterpart of {@link #sendBatch()}
+     */
+    @Benchmark
+    public SmtpWrapper sendMailAsync() throws Exception
+    {
+        operations++;
+        CompletableFuture<?>[] sent = new CompletableFuture<?>[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++)
+            sent[i] = smtp.composeMessage().withRecipients(ImapCorpus.USER + "@localhost").withSubject("benchmark-" + next++)
+                    .withBody("body of the benchmark message").sendMailAsync();
+        CompletableFuture.allOf(sent).join();
+        return smtp;
+    }
+
+    /**
+     * Connect, EHLO, AUTH and QUIT; with the pool the connection is reused and only reset with an RSET
+     */
+    @Benchmark
+    public SmtpWrapper authenticateUser(Connections connections) throws Exception
+    {
+        operations++;
+        return connections.smtp.authenticateUser(fixture.getUser()).disconnect();
+    }
+}
@@ -0,0 +1,96 @@
+package org.alfresco.email.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import jakarta.mail.search.SearchTerm;
+
+import org.alfresco.email.dsl.imap.ImapSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the old client-side subject match of ImapWrapper.searchSubjectFor with the server-side SEARCH SUBJECT
+ * of {@link ImapSearch#searchSubject}. The folder is reopened before every invocation so no envelope is cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SubjectSearchBenchmark
+{
+    @Param({ "1000", "10000", "100000" })
+    int messages;
+
+    private ImapCorpus corpus;
+    private Store store;
+    private Folder folder;
+
+    @Setup(Level.Trial)
+    public void seed() throws MessagingException
+    {
+        corpus = new ImapCorpus(messages);
+        store = corpus.connect();
+    }
+
+    @Setup(Level.Invocation)
+    public void reopen() throws MessagingException
+    {
+        if (folder != null && folder.isOpen())
+            folder.close(false);
+        folder = corpus.openInbox(store, Folder.READ_ONLY);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws MessagingException
+    {
+        store.close();
+        corpus.stop();
+    }
+
+    @Benchmark
+    public List<Message> clientSideSubjectMatch() throws MessagingException
+    {
+        @SuppressWarnings("serial")
+        SearchTerm term = new SearchTerm()
+        {
+            @Override
+            public boolean match(Message message)
+            {
+                try
+                {
+                    return message.getSubject().contains(ImapCorpus.MATCHING_PREFIX);
+                }
+                catch (MessagingException e)
+                {
+                    return false;
+                }
+            }
+        };
+        return Arrays.asList(folder.search(term));
+    }
+
+    @Benchmark
+    public List<Message> serverSideSubjectSearch() throws MessagingException
+    {
+        return ImapSearch.searchSubject(folder, ImapCorpus.MATCHING_PREFIX);
+    }
+}
@@ -0,0 +1,343 @@
+package org.alfresco.email.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * TCP proxy in front of the GreenMail server that counts the bytes on the wire between the client and the proxy,
+ * the connections and the round trips, i.e. how often a client sent a request after the server had answered.
+ * With <code>emulateCompress</code> the proxy stands in for a server with COMPRESS=DEFLATE (RFC 4978), which GreenMail
+ * does not have: it adds the capability, answers the COMPRESS command itself and then deflates the responses and
+ * inflates the commands, so the counted bytes are the compressed ones.
+ */
+public class WireProxy implements AutoCloseable
+{
+    private static final Pattern COMPRESS_COMMAND = Pattern.compile("(\\S+) COMPRESS DEFLATE\\r?\\n", Pattern.CASE_INSENSITIVE);
+    private static final int BUFFER_SIZE = 16384;
+
+    private final ServerSocket serverSocket;
+    private final String backendHost;
+    private final int backendPort;
+    private final boolean emulateCompress;
+    private final AtomicLong bytesToServer = new AtomicLong();
+    private final AtomicLong bytesFromServer = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    public WireProxy(String backendHost, int backendPort, boolean emulateCompress) throws IOException
+    {
+        this.backendHost = backendHost;
+        this.backendPort = backendPort;
+        this.emulateCompress = emulateCompress;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(this::accept, "wire-proxy-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return bytes sent by the clients so far
+     */
+    public long getBytesToServer()
+    {
+        return bytesToServer.get();
+    }
+
+    /**
+     * @return bytes received by the clients so far
+     */
+    public long getBytesFromServer()
+    {
+        return bytesFromServer.get();
+    }
+
+    /**
+     * @return connections opened by the clients so far
+     */
+    public long getConnections()
+    {
+        return connections.get();
+    }
+
+    /**
+     * @return round trips so far; pipelined requests count as one, the connection setup and greeting are not counted
+     */
+    public long getRoundTrips()
+    {
+        return roundTrips.get();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+    }
+
+    private void accept()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                Socket client = serverSocket.accept();
+                Socket backend = new Socket(backendHost, backendPort);
+                client.setTcpNoDelay(true);
+                backend.setTcpNoDelay(true);
+                connections.incrementAndGet();
+                new Connection(client, backend).start();
+            }
+            catch (IOException e)
+            {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * One proxied connection, with one thread per direction
+     */
+    private class Connection
+    {
+        private final Socket client;
+        private final Socket backend;
+        private InputStream clientIn;
+        private OutputStream clientOut;
+        private volatile boolean compressed;
+        /** the server has answered since the client last sent something */
+        private volatile boolean answered;
+
+        private Connection(Socket client, Socket backend) throws IOException
+        {
+            this.client = client;
+            this.backend = backend;
+            clientIn = new BufferedInputStream(new CountingInputStream(client.getInputStream(), bytesToServer, this::requestReceived));
+            clientOut = new CountingOutputStream(client.getOutputStream(), bytesFromServer);
+        }
+
+        private void start()
+        {
+            startThread(this::commands, "commands");
+            startThread(this::responses, "responses");
+        }
+
+        private void startThread(IoTask task, String name)
+        {
+            Thread thread = new Thread(() -> {
+                try
+                {
+                    task.run();
+                }
+                catch (IOException e)
+                {
+                    // connection closed
+                }
+                finally
+                {
+                    closeQuietly(client);
+                    closeQuietly(backend);
+                }
+            }, "wire-proxy-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void commands() throws IOException
+        {
+            OutputStream backendOut = backend.getOutputStream();
+            while (emulateCompress && !compressed)
+            {
+                byte[] line = readLine(clientIn);
+                if (line == null)
+                    return;
+                Matcher matcher = COMPRESS_COMMAND.matcher(new String(line, StandardCharsets.ISO_8859_1));
+                if (matcher.matches())
+                    startCompression(matcher.group(1));
+                else
+                {
+                    backendOut.write(line);
+                    backendOut.flush();
+                }
+            }
+            pump(clientIn, backendOut);
+        }
+
+        private void responses() throws IOException
+        {
+            InputStream backendIn = new BufferedInputStream(backend.getInputStream());
+            while (emulateCompress && !compressed)
+            {
+                byte[] line = readLine(backendIn);
+                if (line == null)
+                    return;
+                String text = new String(line, StandardCharsets.ISO_8859_1);
+                if (text.contains("CAPABILITY IMAP4rev1"))
+                    line = text.replace("CAPABILITY IMAP4rev1", "CAPABILITY IMAP4rev1 COMPRESS=DEFLATE").getBytes(StandardCharsets.ISO_8859_1);
+                writeToClient(line, line.length);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = backendIn.read(buffer)) != -1)
+                writeToClient(buffer, read);
+        }
+
+        /**
+         * Answers the COMPRESS command; the server stays silent until the client has the answer, so nothing is
+         * written to the client in between
+         */
+        private synchronized void startCompression(String tag) throws IOException
+        {
+            answered = true;
+            clientOut.write((tag + " OK DEFLATE active\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            clientOut.flush();
+            clientOut = new DeflaterOutputStream(clientOut, new Deflater(Deflater.DEFAULT_COMPRESSION, true), BUFFER_SIZE, true);
+            clientIn = new InflaterInputStream(clientIn, new Inflater(true), BUFFER_SIZE);
+            compressed = true;
+        }
+
+        /**
+         * Counts a round trip for the first data from the client after an answer
+         */
+        private void requestReceived()
+        {
+            if (answered)
+            {
+                answered = false;
+                roundTrips.incrementAndGet();
+            }
+        }
+
+        /**
+         * Marks the answer before writing it, so the next request of the client cannot overtake it
+         */
+        private synchronized void writeToClient(byte[] bytes, int length) throws IOException
+        {
+            answered = true;
+            clientOut.write(bytes, 0, length);
+            clientOut.flush();
+        }
+
+        private void pump(InputStream in, OutputStream out) throws IOException
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        }
+    }
+
+    private static byte[] readLine(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1)
+        {
+            line.write(b);
+            if (b == '\n')
+                return line.toByteArray();
+        }
+        return line.size() == 0 ? null : line.toByteArray();
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // already closed
+        }
+    }
+
+    private interface IoTask
+    {
+        void run() throws IOException;
+    }
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private final AtomicLong counter;
+        private final Runnable onData;
+
+        private CountingInputStream(InputStream in, AtomicLong counter, Runnable onData)
+        {
+            super(in);
+            this.counter = counter;
+            this.onData = onData;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b != -1)
+            {
+                counter.incrementAndGet();
+                onData.run();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = super.read(b, off, len);
+            if (read > 0)
+            {
+                counter.addAndGet(read);
+                onData.run();
+            }
+            return read;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        private final AtomicLong counter;
+
+        private CountingOutputStream(OutputStream out, AtomicLong counter)
+        {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+}
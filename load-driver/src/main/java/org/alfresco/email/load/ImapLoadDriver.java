@@ -0,0 +1,100 @@
+package org.alfresco.email.load;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.email.EmailProperties;
+import org.alfresco.email.ImapWrapper;
+import org.alfresco.utility.LogFactory;
+import org.alfresco.utility.model.UserModel;
+import org.slf4j.Logger;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Simulates many concurrent IMAP users against an Alfresco server. Every virtual user gets its own prototype
+ * {@link ImapWrapper} and runs the <code>load.scenario</code> in a loop on its own thread, a virtual one on Java 21,
+ * see {@link VirtualThreads}. The IMAP store pool is turned off unless <code>imap.pool.enabled</code> is set, so every
+ * <code>authenticate</code> connects and logs in; a pooled one is reported as <code>authenticatePooled</code>.
+ * The users are started evenly over <code>load.rampUpSeconds</code> and then run together for
+ * <code>load.steadyStateSeconds</code>; the latencies go to an HdrHistogram log, see {@link LatencyRecorder}.
+ * With <code>load.mode=smtp</code> the {@link SmtpLoadDriver} runs instead.
+ * <p>
+ * Usage: <code>java -Denvironment=&lt;env&gt; -Dload.users=500 -Dload.site=&lt;site&gt; -jar imap-load-driver.jar</code>
+ */
+public class ImapLoadDriver
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    /** extra time the users get to finish their last operation */
+    private static final long SHUTDOWN_GRACE_MILLIS = 60000;
+
+    private final ApplicationContext context;
+    private final LoadConfiguration configuration;
+
+    public ImapLoadDriver(ApplicationContext context, LoadConfiguration configuration)
+    {
+        this.context = context;
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        LoadConfiguration configuration = new LoadConfiguration();
+        if (!configuration.isSmtpMode() && System.getProperty("imap.pool.enabled") == null)
+            System.setProperty("imap.pool.enabled", "false");
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("load-driver-context.xml"))
+        {
+            if (configuration.isSmtpMode())
+                new SmtpLoadDriver(context, configuration).run(System.out);
+            else
+                new ImapLoadDriver(context, configuration).run(System.out);
+        }
+        System.exit(0);
+    }
+
+    public void run(PrintStream out) throws Exception
+    {
+        List<UserModel> credentials = configuration.getCredentials();
+        int users = configuration.getUsers();
+        long rampUp = configuration.getRampUpMillis();
+        long startedAt = System.currentTimeMillis();
+        long rampUpEndsAt = startedAt + rampUp;
+        long stopAt = rampUpEndsAt + configuration.getSteadyStateMillis();
+        LOG.info("Load: {} users, scenario {}, ramp-up {} s, steady state {} s", users, configuration.getScenario(), rampUp / 1000,
+                configuration.getSteadyStateMillis() / 1000);
+
+        LatencyRecorder recorder = new LatencyRecorder(new File(configuration.getHistogramFile()), startedAt, rampUpEndsAt);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long interval = configuration.getReportIntervalMillis();
+        reporter.scheduleAtFixedRate(recorder::writeInterval, interval, interval, TimeUnit.MILLISECONDS);
+
+        boolean pooled = context.getBean(EmailProperties.class).isImapPoolEnabled();
+        if (pooled)
+            LOG.warn("Load: imap.pool.enabled is set, authenticate takes pooled connections and is reported as authenticatePooled");
+
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+        for (int i = 0; i < users; i++)
+        {
+            ImapWrapper imap = context.getBean(ImapWrapper.class);
+            UserModel userModel = credentials.get(i % credentials.size());
+            executor.submit(new VirtualUser(imap, userModel, configuration, recorder, pooled, startedAt + i * rampUp / users, stopAt));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(stopAt - System.currentTimeMillis() + SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS))
+        {
+            LOG.warn("Load: interrupting the users that are still running");
+            executor.shutdownNow();
+        }
+
+        reporter.shutdown();
+        reporter.awaitTermination(interval, TimeUnit.MILLISECONDS);
+        recorder.finish(out);
+        out.printf("Histogram log written to %s%n", new File(configuration.getHistogramFile()).getAbsolutePath());
+    }
+}
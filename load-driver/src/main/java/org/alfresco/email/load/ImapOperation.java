@@ -0,0 +1,124 @@
+package org.alfresco.email.load;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+
+import org.alfresco.email.ImapWrapper;
+import org.alfresco.email.dsl.imap.TextPartFetcher;
+
+/**
+ * The operations a virtual user can run, each one a call of the {@link ImapWrapper} DSL
+ */
+public enum ImapOperation
+{
+    AUTHENTICATE
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            user.imap.authenticateUser(user.userModel);
+        }
+    },
+    USING_SITE
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            user.imap.usingSite(user.configuration.getSite());
+        }
+    },
+    /**
+     * Lists the children of the current folder on the server, see {@link ImapWrapper#getFolders()}
+     */
+    LIST
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            user.imap.getFolders();
+        }
+    },
+    SEARCH
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            user.imap.searchSubjectFor(user.configuration.getSearchTerm());
+        }
+    },
+    /**
+     * Reads the text part of the first search result
+     */
+    FETCH
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            List<Message> results = user.imap.usingSearchResults();
+            if (results == null || results.isEmpty())
+                return;
+            Reader text = TextPartFetcher.fetchText(results.get(0), user.configuration.getFetchMaxBytes());
+            if (text != null)
+                drain(text);
+        }
+    },
+    /**
+     * Flags and unflags all search results, so the messages stay as they were
+     */
+    FLAG
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            List<Message> results = user.imap.usingSearchResults();
+            if (results == null || results.isEmpty())
+                return;
+            user.imap.withSearchResults().setFlags(Flags.Flag.FLAGGED).removeFlags(Flags.Flag.FLAGGED);
+        }
+    },
+    DISCONNECT
+    {
+        @Override
+        void run(VirtualUser user) throws Exception
+        {
+            user.imap.disconnect();
+        }
+    };
+
+    abstract void run(VirtualUser user) throws Exception;
+
+    /**
+     * @param name operation name as used in <code>load.scenario</code>, e.g. <code>usingSite</code>
+     */
+    public static ImapOperation fromName(String name)
+    {
+        for (ImapOperation operation : values())
+            if (operation.getName().equalsIgnoreCase(name))
+                return operation;
+        throw new IllegalArgumentException("Unknown load operation: " + name);
+    }
+
+    /**
+     * @return the name used in <code>load.scenario</code> and in the reports
+     */
+    public String getName()
+    {
+        return name().equals("USING_SITE") ? "usingSite" : name().toLowerCase();
+    }
+
+    private static void drain(Reader text) throws IOException
+    {
+        try (Reader reader = text)
+        {
+            char[] buffer = new char[8192];
+            while (reader.read(buffer) != -1)
+            {
+                // only the transfer is measured
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.alfresco.email.load;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Per-operation latency histograms of a load run, split into the ramp-up and the steady state phase.
+ * Every interval the histograms recorded since the last interval are appended to an HdrHistogram log, tagged with
+ * <code>operation:phase</code>, so the run can be plotted over time (e.g. with HistogramLogAnalyzer); the totals are
+ * printed as a percentile table at the end. Latencies are recorded in microseconds.
+ */
+public class LatencyRecorder
+{
+    public static final String RAMP_UP = "ramp-up";
+    public static final String STEADY = "steady";
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final long rampUpEndsAt;
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> totals = new TreeMap<>();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final HistogramLogWriter logWriter;
+    private long intervalStart;
+
+    /**
+     * @param startedAt start of the run, in epoch milliseconds
+     * @param rampUpEndsAt end of the ramp-up, in epoch milliseconds
+     */
+    public LatencyRecorder(File logFile, long startedAt, long rampUpEndsAt) throws FileNotFoundException
+    {
+        this.rampUpEndsAt = rampUpEndsAt;
+        this.intervalStart = startedAt;
+        logWriter = new HistogramLogWriter(logFile);
+        logWriter.outputLogFormatVersion();
+        logWriter.outputStartTime(startedAt);
+        logWriter.setBaseTime(startedAt);
+        logWriter.outputLegend();
+    }
+
+    public void record(ImapOperation operation, long nanos)
+    {
+        record(operation.getName(), nanos);
+    }
+
+    /**
+     * @param operation name in the reports, e.g. <code>search</code> or <code>data</code>
+     */
+    public void record(String operation, long nanos)
+    {
+        recorders.computeIfAbsent(getTag(operation), tag -> new Recorder(SIGNIFICANT_DIGITS))
+                .recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    public void recordError(ImapOperation operation)
+    {
+        recordError(operation.getName());
+    }
+
+    public void recordError(String operation)
+    {
+        errors.computeIfAbsent(getTag(operation), tag -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Appends the histograms recorded since the last call to the log
+     */
+    public synchronized void writeInterval()
+    {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Recorder> entry : recorders.entrySet())
+        {
+            Histogram interval = entry.getValue().getIntervalHistogram();
+            if (interval.getTotalCount() == 0)
+                continue;
+            interval.setTag(entry.getKey());
+            interval.setStartTimeStamp(intervalStart);
+            interval.setEndTimeStamp(now);
+            logWriter.outputIntervalHistogram(interval);
+            totals.computeIfAbsent(entry.getKey(), tag -> new Histogram(SIGNIFICANT_DIGITS)).add(interval);
+        }
+        intervalStart = now;
+    }
+
+    /**
+     * Writes the last interval, closes the log and prints count, errors and percentiles in milliseconds per operation and phase
+     */
+    public synchronized void finish(PrintStream out)
+    {
+        writeInterval();
+        logWriter.close();
+
+        Map<String, Long> errorCounts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : errors.entrySet())
+            errorCounts.put(entry.getKey(), entry.getValue().get());
+        out.printf("%-24s %9s %7s %9s %9s %9s %9s %9s%n", "operation:phase", "count", "errors", "p50", "p90", "p99", "p99.9", "max");
+        for (Map.Entry<String, Histogram> entry : totals.entrySet())
+        {
+            Histogram histogram = entry.getValue();
+            out.printf("%-24s %9d %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), histogram.getTotalCount(),
+                    errorCounts.getOrDefault(entry.getKey(), 0L), millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)), millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+        }
+        for (Map.Entry<String, Long> entry : errorCounts.entrySet())
+            if (!totals.containsKey(entry.getKey()))
+                out.printf("%-24s %9d %7d%n", entry.getKey(), 0, entry.getValue());
+    }
+
+    private String getTag(String operation)
+    {
+        return operation + ":" + (System.currentTimeMillis() < rampUpEndsAt ? RAMP_UP : STEADY);
+    }
+
+    private static double millis(long micros)
+    {
+        return micros / 1000.0;
+    }
+}
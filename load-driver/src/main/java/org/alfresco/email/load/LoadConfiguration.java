@@ -0,0 +1,164 @@
+package org.alfresco.email.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.alfresco.utility.model.UserModel;
+
+/**
+ * Settings of a load run, read from <code>load.properties</code> and overridden by system properties
+ */
+public class LoadConfiguration
+{
+    private final Properties properties = new Properties();
+
+    public LoadConfiguration() throws IOException
+    {
+        try (InputStream defaults = LoadConfiguration.class.getResourceAsStream("/load.properties"))
+        {
+            if (defaults != null)
+                properties.load(defaults);
+        }
+        for (String name : System.getProperties().stringPropertyNames())
+            if (name.startsWith("load."))
+                properties.setProperty(name, System.getProperty(name));
+    }
+
+    /**
+     * @return the SMTP load generator runs instead of the IMAP users, <code>load.mode=smtp</code>
+     */
+    public boolean isSmtpMode()
+    {
+        String mode = get("load.mode");
+        if (!mode.isEmpty() && !mode.equalsIgnoreCase("imap") && !mode.equalsIgnoreCase("smtp"))
+            throw new IllegalArgumentException(String.format("load.mode must be imap or smtp, not '%s'", mode));
+        return mode.equalsIgnoreCase("smtp");
+    }
+
+    public int getUsers()
+    {
+        return getInt("load.users");
+    }
+
+    public long getRampUpMillis()
+    {
+        return getInt("load.rampUpSeconds") * 1000L;
+    }
+
+    public long getSteadyStateMillis()
+    {
+        return getInt("load.steadyStateSeconds") * 1000L;
+    }
+
+    public long getThinkTimeMillis()
+    {
+        return getInt("load.thinkTimeMs");
+    }
+
+    public List<ImapOperation> getScenario()
+    {
+        List<ImapOperation> scenario = new ArrayList<>();
+        for (String operation : get("load.scenario").split(","))
+            if (!operation.trim().isEmpty())
+                scenario.add(ImapOperation.fromName(operation.trim()));
+        return scenario;
+    }
+
+    /**
+     * @return the users of the credentials file, or the single configured user
+     */
+    public List<UserModel> getCredentials() throws IOException
+    {
+        List<UserModel> users = new ArrayList<>();
+        String file = get("load.credentialsFile");
+        if (file.isEmpty())
+        {
+            users.add(new UserModel(get("load.username"), get("load.password")));
+            return users;
+        }
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            String[] credentials = line.split(",", 2);
+            if (credentials.length == 2 && !line.startsWith("#"))
+                users.add(new UserModel(credentials[0].trim(), credentials[1].trim()));
+        }
+        if (users.isEmpty())
+            throw new IOException("No credentials found in " + file);
+        return users;
+    }
+
+    public String getSite()
+    {
+        return get("load.site");
+    }
+
+    public String getSearchTerm()
+    {
+        return get("load.searchTerm");
+    }
+
+    public int getFetchMaxBytes()
+    {
+        return getInt("load.fetchMaxBytes");
+    }
+
+    public String getHistogramFile()
+    {
+        return get("load.histogramFile");
+    }
+
+    public long getReportIntervalMillis()
+    {
+        return getInt("load.reportIntervalSeconds") * 1000L;
+    }
+
+    public int getSmtpMessagesPerSecond()
+    {
+        int rate = getInt("load.smtp.messagesPerSecond");
+        if (rate <= 0)
+            throw new IllegalArgumentException(String.format("load.smtp.messagesPerSecond must be positive, not %d", rate));
+        return rate;
+    }
+
+    /**
+     * @return comma separated recipients of every message, empty to send every message to its sender
+     */
+    public String getSmtpRecipients()
+    {
+        return get("load.smtp.recipients");
+    }
+
+    public int getSmtpMessageBytes()
+    {
+        return getInt("load.smtp.messageBytes");
+    }
+
+    public String getSmtpHistogramFile()
+    {
+        return get("load.smtp.histogramFile");
+    }
+
+    private String get(String name)
+    {
+        return properties.getProperty(name, "").trim();
+    }
+
+    private int getInt(String name)
+    {
+        String value = get(name);
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(String.format("%s must be a number, not '%s'", name, value));
+        }
+    }
+}
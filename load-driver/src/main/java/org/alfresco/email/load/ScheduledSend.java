@@ -0,0 +1,153 @@
+package org.alfresco.email.load;
+
+import jakarta.mail.Message;
+import jakarta.mail.Transport;
+
+import org.alfresco.email.SmtpWrapper;
+import org.alfresco.email.connection.PipeliningSmtpTransport;
+import org.alfresco.email.metrics.CommandListener;
+import org.alfresco.email.metrics.CommandTimer;
+import org.alfresco.utility.LogFactory;
+import org.alfresco.utility.model.UserModel;
+import org.slf4j.Logger;
+
+/**
+ * One message of the SMTP load, sent with its own {@link SmtpWrapper} at the time the schedule intended.
+ * <code>connect</code> is the time to get a ready transport from the pool (a new connection with EHLO and AUTH, or a
+ * pooled one checked with RSET), <code>poolWait</code> the time the message waited for a connection slot of the
+ * pool (<code>smtp.pool.maxPerHost</code>), <code>mail</code>, <code>rcpt</code> and <code>data</code> the time of the
+ * commands timed on the transport, and <code>total</code> the time from the intended send time to the accepted message,
+ * so a send that started late because the client or the pool was behind counts the wait as well. A message that finds
+ * no slot within <code>smtp.pool.borrowTimeoutMs</code> is a <code>poolWait</code> error, not a <code>total</code> one.
+ */
+public class ScheduledSend implements Runnable, CommandListener
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    public static final String CONNECT = "connect";
+    public static final String POOL_WAIT = "poolWait";
+    public static final String MAIL = "mail";
+    public static final String RCPT = "rcpt";
+    public static final String DATA = "data";
+    public static final String TOTAL = "total";
+
+    private final SmtpWrapper smtp;
+    private final UserModel userModel;
+    private final String recipients;
+    private final String subject;
+    private final String body;
+    private final LatencyRecorder recorder;
+    private final long intendedAt;
+
+    /**
+     * @param recipients comma separated, empty to send the message to its sender
+     * @param intendedAt when the schedule intended the message to be sent, in {@link System#nanoTime()}
+     */
+    public ScheduledSend(SmtpWrapper smtp, UserModel userModel, String recipients, String subject, String body, LatencyRecorder recorder,
+            long intendedAt)
+    {
+        this.smtp = smtp;
+        this.userModel = userModel;
+        this.recipients = recipients.isEmpty() ? userModel.getUsername() : recipients;
+        this.subject = subject;
+        this.body = body;
+        this.recorder = recorder;
+        this.intendedAt = intendedAt;
+    }
+
+    @Override
+    public void run()
+    {
+        String operation = CONNECT;
+        CommandTimer timer = null;
+        Transport transport = null;
+        try
+        {
+            long started = System.nanoTime();
+            smtp.authenticateUser(userModel);
+            recorder.record(CONNECT, System.nanoTime() - started);
+
+            operation = TOTAL;
+            timer = CommandTimer.of(smtp.getSession());
+            if (timer != null)
+                timer.addListener(this);
+            Message message = smtp.composeMessage().withRecipients(recipients).withSubject(subject).withBody(body).toMessage();
+            transport = smtp.getTransport();
+            transport.sendMessage(message, message.getAllRecipients());
+            recordPoolWait(transport);
+            recorder.record(TOTAL, System.nanoTime() - intendedAt);
+        }
+        catch (Exception e)
+        {
+            if (operation.equals(TOTAL) && !recordPoolWait(transport))
+                operation = POOL_WAIT;
+            recorder.recordError(operation);
+            if (operation.equals(CONNECT))
+                recorder.recordError(TOTAL);
+            LOG.warn("Load: sending '{}' as {} failed at {}: {}", subject, userModel.getUsername(), operation, e.getMessage());
+        }
+        finally
+        {
+            if (timer != null)
+                timer.removeListener(this);
+            disconnectQuietly();
+        }
+    }
+
+    /**
+     * Records the SMTP transaction commands of this message
+     */
+    @Override
+    public void commandCompleted(String command, long nanos, boolean failed)
+    {
+        String operation = getOperation(command);
+        if (operation == null)
+            return;
+        if (failed)
+            recorder.recordError(operation);
+        else
+            recorder.record(operation, nanos);
+    }
+
+    /**
+     * @return false if the message did not get a connection slot of the pool
+     */
+    private boolean recordPoolWait(Transport transport)
+    {
+        if (!(transport instanceof PipeliningSmtpTransport))
+            return true;
+        long nanos = ((PipeliningSmtpTransport) transport).getSendWaitNanos();
+        if (nanos < 0)
+            return false;
+        recorder.record(POOL_WAIT, nanos);
+        return true;
+    }
+
+    private static String getOperation(String command)
+    {
+        switch (command)
+        {
+            case "MAIL FROM":
+                return MAIL;
+            case "RCPT TO":
+                return RCPT;
+            case "DATA":
+                return DATA;
+            default:
+                return null;
+        }
+    }
+
+    private void disconnectQuietly()
+    {
+        try
+        {
+            if (smtp.getSession() != null)
+                smtp.disconnect();
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Load: disconnect failed for {}: {}", userModel.getUsername(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.alfresco.email.load;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.alfresco.email.EmailProperties;
+import org.alfresco.email.SmtpWrapper;
+import org.alfresco.utility.LogFactory;
+import org.alfresco.utility.model.UserModel;
+import org.slf4j.Logger;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Sends messages with the {@link SmtpWrapper} DSL at a fixed rate of <code>load.smtp.messagesPerSecond</code>.
+ * The schedule is open loop: message <i>n</i> is due at <i>start + n / rate</i> and is handed to its own thread
+ * (a virtual one on Java 21, see {@link VirtualThreads}) at that time, however long the earlier messages take, and its total latency is measured from that
+ * time, so a stalled server shows up in the percentiles instead of slowing the load down (coordinated omission).
+ * The first <code>load.rampUpSeconds</code> run at the full rate and are reported as the ramp-up phase; the latencies
+ * go to an HdrHistogram log, see {@link ScheduledSend} for what is recorded.
+ * Unless <code>smtp.pool.maxPerHost</code> is given with <code>-D</code>, the driver raises the per-host cap of the
+ * transport pool to the messages sent within <code>smtp.pool.borrowTimeoutMs</code>, so a slow server makes the
+ * messages wait on the server instead of failing in the client's pool.
+ * <p>
+ * Usage: <code>java -Denvironment=&lt;env&gt; -Dload.mode=smtp -Dload.smtp.messagesPerSecond=50 -jar imap-load-driver.jar</code>
+ */
+public class SmtpLoadDriver
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    /** extra time the last messages get to be sent */
+    private static final long SHUTDOWN_GRACE_MILLIS = 60000;
+
+    private final ApplicationContext context;
+    private final LoadConfiguration configuration;
+
+    public SmtpLoadDriver(ApplicationContext context, LoadConfiguration configuration)
+    {
+        this.context = context;
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        LoadConfiguration configuration = new LoadConfiguration();
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("load-driver-context.xml"))
+        {
+            new SmtpLoadDriver(context, configuration).run(System.out);
+        }
+        System.exit(0);
+    }
+
+    public void run(PrintStream out) throws Exception
+    {
+        List<UserModel> credentials = configuration.getCredentials();
+        int rate = configuration.getSmtpMessagesPerSecond();
+        String recipients = configuration.getSmtpRecipients();
+        String body = newBody(configuration.getSmtpMessageBytes());
+        long rampUp = configuration.getRampUpMillis();
+        long duration = rampUp + configuration.getSteadyStateMillis();
+        LOG.info("Load: {} SMTP messages/s of {} bytes, ramp-up {} s, steady state {} s", rate, body.length(), rampUp / 1000,
+                configuration.getSteadyStateMillis() / 1000);
+        sizeTransportPool(context.getBean(EmailProperties.class), rate);
+
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        File histogramFile = new File(configuration.getSmtpHistogramFile());
+        LatencyRecorder recorder = new LatencyRecorder(histogramFile, startedAt, startedAt + rampUp);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long interval = configuration.getReportIntervalMillis();
+        reporter.scheduleAtFixedRate(recorder::writeInterval, interval, interval, TimeUnit.MILLISECONDS);
+
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+        long messages = duration * rate / 1000;
+        for (long i = 0; i < messages; i++)
+        {
+            long intendedAt = start + i * TimeUnit.SECONDS.toNanos(1) / rate;
+            parkUntil(intendedAt);
+            SmtpWrapper smtp = context.getBean(SmtpWrapper.class);
+            UserModel userModel = credentials.get((int) (i % credentials.size()));
+            executor.execute(new ScheduledSend(smtp, userModel, recipients, "load " + i, body, recorder, intendedAt));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS))
+        {
+            LOG.warn("Load: interrupting the sends that are still running");
+            executor.shutdownNow();
+        }
+
+        reporter.shutdown();
+        reporter.awaitTermination(interval, TimeUnit.MILLISECONDS);
+        recorder.finish(out);
+        out.printf("Histogram log written to %s%n", histogramFile.getAbsolutePath());
+    }
+
+    /**
+     * A message waits at most <code>smtp.pool.borrowTimeoutMs</code> for a connection slot, so the messages sent in that
+     * time need one slot each to not fail in the client while the server is slow
+     */
+    private static void sizeTransportPool(EmailProperties emailProperties, int rate)
+    {
+        if (System.getProperty("smtp.pool.maxPerHost") != null)
+            return;
+        long slots = Math.max(1, rate * emailProperties.getSmtpPoolBorrowTimeout() / 1000);
+        if (slots > emailProperties.getSmtpPoolMaxPerHost())
+        {
+            LOG.info("Load: raising smtp.pool.maxPerHost from {} to {} for {} messages/s", emailProperties.getSmtpPoolMaxPerHost(), slots, rate);
+            emailProperties.setSmtpPoolMaxPerHost((int) Math.min(Integer.MAX_VALUE, slots));
+        }
+    }
+
+    /**
+     * Waits for the send time; a schedule that is behind does not wait, so the late messages go out at once
+     */
+    private static void parkUntil(long nanoTime)
+    {
+        long delay;
+        while ((delay = nanoTime - System.nanoTime()) > 0)
+            LockSupport.parkNanos(delay);
+    }
+
+    private static String newBody(int bytes)
+    {
+        StringBuilder body = new StringBuilder(bytes);
+        String line = "The quick brown fox jumps over the lazy dog 0123456789\r\n";
+        while (body.length() + line.length() <= bytes)
+            body.append(line);
+        while (body.length() < bytes)
+            body.append('x');
+        return body.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package org.alfresco.email.load;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+
+/**
+ * Creates the executor of the virtual users. The project is built for Java 17, so the virtual-thread executor of
+ * Java 21 is looked up at runtime; on older runtimes every user gets a platform thread instead.
+ * Before Java 24 (JEP 491) a virtual thread blocked in the synchronized socket I/O of Jakarta Mail pins its carrier,
+ * so the users only share carriers while they think or wait for their start.
+ */
+public final class VirtualThreads
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * @return an executor that starts a new (virtual if possible) thread for every task
+     */
+    public static ExecutorService newThreadPerTaskExecutor()
+    {
+        try
+        {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOG.info("Load: running the users on virtual threads");
+            return executor;
+        }
+        catch (ReflectiveOperationException e)
+        {
+            LOG.info("Load: virtual threads need Java 21, running the users on platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.alfresco.email.load;
+
+import java.util.List;
+
+import org.alfresco.email.ImapWrapper;
+import org.alfresco.utility.LogFactory;
+import org.alfresco.utility.model.UserModel;
+import org.slf4j.Logger;
+
+/**
+ * One simulated IMAP user with its own {@link ImapWrapper}, running the scenario in a loop until the run ends.
+ * When an operation fails, the rest of the loop is skipped and the next loop starts with a new connection.
+ */
+public class VirtualUser implements Runnable
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    final ImapWrapper imap;
+    final UserModel userModel;
+    final LoadConfiguration configuration;
+    private final List<ImapOperation> scenario;
+    private final LatencyRecorder recorder;
+    private final boolean pooled;
+    private final long startAt;
+    private final long stopAt;
+
+    /**
+     * @param pooled <code>authenticate</code> takes a connection from the IMAP store pool, see {@link #getName(ImapOperation)}
+     * @param startAt when the user starts, in epoch milliseconds
+     * @param stopAt when the user stops, in epoch milliseconds
+     */
+    public VirtualUser(ImapWrapper imap, UserModel userModel, LoadConfiguration configuration, LatencyRecorder recorder,
+            boolean pooled, long startAt, long stopAt)
+    {
+        this.imap = imap;
+        this.userModel = userModel;
+        this.configuration = configuration;
+        this.scenario = configuration.getScenario();
+        this.recorder = recorder;
+        this.pooled = pooled;
+        this.startAt = startAt;
+        this.stopAt = stopAt;
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            sleepUntil(startAt);
+            while (System.currentTimeMillis() < stopAt)
+                runScenario();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            disconnectQuietly();
+        }
+    }
+
+    private void runScenario() throws InterruptedException
+    {
+        for (ImapOperation operation : scenario)
+        {
+            if (System.currentTimeMillis() >= stopAt)
+                return;
+            long started = System.nanoTime();
+            try
+            {
+                operation.run(this);
+                recorder.record(getName(operation), System.nanoTime() - started);
+            }
+            catch (Exception e)
+            {
+                recorder.recordError(getName(operation));
+                LOG.warn("Load: {} failed for {}: {}", getName(operation), userModel.getUsername(), e.getMessage());
+                disconnectQuietly();
+                return;
+            }
+            if (configuration.getThinkTimeMillis() > 0)
+                Thread.sleep(configuration.getThinkTimeMillis());
+        }
+    }
+
+    /**
+     * @return the name of the operation in the reports; a pooled <code>authenticate</code> only checks an idle
+     *         connection with a NOOP, so it is kept apart from the real logins
+     */
+    private String getName(ImapOperation operation)
+    {
+        return pooled && operation == ImapOperation.AUTHENTICATE ? "authenticatePooled" : operation.getName();
+    }
+
+    private void disconnectQuietly()
+    {
+        try
+        {
+            if (imap.getImapStore() != null && imap.getImapStore().isConnected())
+                imap.disconnect();
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Load: disconnect failed for {}: {}", userModel.getUsername(), e.getMessage());
+        }
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException
+    {
+        long delay = time - System.currentTimeMillis();
+        if (delay > 0)
+            Thread.sleep(delay);
+    }
+}
@@ -23,6 +23,66 @@ public class EmailProperties
     @Value("${imaps.port:993}")
     private int imapSecurePort;
 
+    /*
+     * Connect with IMAPS on the secure port instead of IMAP
+     */
+    @Value("${imap.ssl.enabled:false}")
+    private boolean imapSslEnabled;
+
+    /*
+     * Hosts whose IMAPS certificates are trusted without validation, "*" for all (e.g. self-signed test servers)
+     */
+    @Value("${imap.ssl.trust:}")
+    private String imapSslTrust;
+
+    /*
+     * Negotiate COMPRESS=DEFLATE (RFC 4978) when the IMAP server supports it
+     */
+    @Value("${imap.compress.enabled:false}")
+    private boolean imapCompressEnabled;
+
+    /*
+     * Deflate level from 0 to 9, -1 for the default level
+     */
+    @Value("${imap.compress.level:-1}")
+    private int imapCompressLevel;
+
+    @Value("${imap.pool.enabled:true}")
+    private boolean imapPoolEnabled;
+
+    @Value("${imap.pool.maxIdlePerUser:4}")
+    private int imapPoolMaxIdlePerUser;
+
+    @Value("${imap.pool.idleTimeoutMs:60000}")
+    private long imapPoolIdleTimeout;
+
+    @Value("${imap.folders.maxOpen:8}")
+    private int imapMaxOpenFolders;
+
+    /*
+     * How long the folder tree read with LIST "" "*" is used before it is read again
+     */
+    @Value("${imap.folders.snapshotTtlMs:10000}")
+    private long imapFolderSnapshotTtl;
+
+    /*
+     * Number of connections used to copy a folder tree
+     */
+    @Value("${imap.copy.parallelism:4}")
+    private int imapCopyParallelism;
+
+    /*
+     * How long a deletion waits for the EXPUNGE responses of the IMAP server before checking the repository
+     */
+    @Value("${imap.expunge.timeoutMs:5000}")
+    private long imapExpungeTimeout;
+
+    /*
+     * Record the latency of every IMAP and SMTP command, see ProtocolMetrics; the commands are timed without the debug trace
+     */
+    @Value("${email.metrics.enabled:true}")
+    private boolean metricsEnabled;
+
     @Value("${smtp.server}")
     private String smtpServer;
 
@@ -35,6 +95,43 @@ public class EmailProperties
     @Value("${smtp.tsl.enabled}")
     private boolean isSmtpTSLEnabled;
 
+    @Value("${smtp.pool.enabled:true}")
+    private boolean smtpPoolEnabled;
+
+    /*
+     * Most connections to one SMTP server that are idle in the pool or sending a message; connections a wrapper holds
+     * between messages do not count
+     */
+    @Value("${smtp.pool.maxPerHost:8}")
+    private int smtpPoolMaxPerHost;
+
+    @Value("${smtp.pool.idleTimeoutMs:30000}")
+    private long smtpPoolIdleTimeout;
+
+    /*
+     * How long a message waits for another send to finish when maxPerHost connections are idle or sending
+     */
+    @Value("${smtp.pool.borrowTimeoutMs:5000}")
+    private long smtpPoolBorrowTimeout;
+
+    /*
+     * Pipeline MAIL FROM and RCPT TO in SmtpWrapper.sendBatch when the server advertises PIPELINING
+     */
+    @Value("${smtp.pipelining.enabled:true}")
+    private boolean smtpPipeliningEnabled;
+
+    /*
+     * Threads sending the messages of ComposeMessage.sendMailAsync, each on its own pooled connection
+     */
+    @Value("${smtp.async.threads:4}")
+    private int smtpAsyncThreads;
+
+    /*
+     * Asynchronous sends queued or running before sendMailAsync blocks the caller
+     */
+    @Value("${smtp.async.maxInFlight:64}")
+    private int smtpAsyncMaxInFlight;
+
     @Value("${mail.encoding}")
     private String mailEncoding;
 
@@ -90,6 +187,46 @@ public class EmailProperties
         return isSmtpTSLEnabled;
     }
 
+    public boolean isSmtpPoolEnabled()
+    {
+        return smtpPoolEnabled;
+    }
+
+    public int getSmtpPoolMaxPerHost()
+    {
+        return smtpPoolMaxPerHost;
+    }
+
+    public void setSmtpPoolMaxPerHost(int smtpPoolMaxPerHost)
+    {
+        this.smtpPoolMaxPerHost = smtpPoolMaxPerHost;
+    }
+
+    public long getSmtpPoolIdleTimeout()
+    {
+        return smtpPoolIdleTimeout;
+    }
+
+    public long getSmtpPoolBorrowTimeout()
+    {
+        return smtpPoolBorrowTimeout;
+    }
+
+    public boolean isSmtpPipeliningEnabled()
+    {
+        return smtpPipeliningEnabled;
+    }
+
+    public int getSmtpAsyncThreads()
+    {
+        return smtpAsyncThreads;
+    }
+
+    public int getSmtpAsyncMaxInFlight()
+    {
+        return smtpAsyncMaxInFlight;
+    }
+
     public String getImapServer()
     {
         return imapServer;
@@ -105,6 +242,66 @@ public class EmailProperties
         return imapSecurePort;
     }
 
+    public boolean isImapSslEnabled()
+    {
+        return imapSslEnabled;
+    }
+
+    public String getImapSslTrust()
+    {
+        return imapSslTrust;
+    }
+
+    public boolean isImapCompressEnabled()
+    {
+        return imapCompressEnabled;
+    }
+
+    public int getImapCompressLevel()
+    {
+        return imapCompressLevel;
+    }
+
+    public boolean isImapPoolEnabled()
+    {
+        return imapPoolEnabled;
+    }
+
+    public int getImapPoolMaxIdlePerUser()
+    {
+        return imapPoolMaxIdlePerUser;
+    }
+
+    public long getImapPoolIdleTimeout()
+    {
+        return imapPoolIdleTimeout;
+    }
+
+    public int getImapMaxOpenFolders()
+    {
+        return imapMaxOpenFolders;
+    }
+
+    public long getImapFolderSnapshotTtl()
+    {
+        return imapFolderSnapshotTtl;
+    }
+
+    public int getImapCopyParallelism()
+    {
+        return imapCopyParallelism;
+    }
+
+    public long getImapExpungeTimeout()
+    {
+        return imapExpungeTimeout;
+    }
+
+    public boolean isMetricsEnabled()
+    {
+        return metricsEnabled;
+    }
+
     public String getSmtpServer()
     {
         return smtpServer;
@@ -6,8 +6,17 @@ import static org.alfresco.utility.report.log.Step.STEP;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import jakarta.mail.Flags;
 import jakarta.mail.Folder;
@@ -16,13 +25,26 @@ import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
 import jakarta.mail.Store;
-import jakarta.mail.search.SearchTerm;
+import jakarta.mail.UIDFolder;
 
 import org.alfresco.dataprep.ContentActions;
+import org.alfresco.email.connection.ImapConnectionOptions;
+import org.alfresco.email.connection.ImapFolderHandles;
+import org.alfresco.email.connection.ImapFolderTree;
+import org.alfresco.email.connection.ImapStorePool;
+import org.alfresco.email.dsl.BulkMessageFlags;
+import org.alfresco.email.dsl.CommandBudget;
 import org.alfresco.email.dsl.JmxUtil;
 import org.alfresco.email.dsl.MessageFlags;
+import org.alfresco.email.dsl.MetricsUtil;
+import org.alfresco.email.dsl.imap.ExpungeWait;
+import org.alfresco.email.dsl.imap.FolderTreeCopy;
 import org.alfresco.email.dsl.imap.ImapAssertion;
+import org.alfresco.email.dsl.imap.ImapCommands;
+import org.alfresco.email.dsl.imap.ImapSearch;
 import org.alfresco.email.dsl.imap.ImapUtil;
+import org.alfresco.email.dsl.imap.SubjectIndex;
+import org.alfresco.email.metrics.ProtocolMetrics;
 import org.alfresco.utility.LogFactory;
 import org.alfresco.utility.TasProperties;
 import org.alfresco.utility.Utility;
@@ -40,6 +62,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
+import com.sun.mail.imap.protocol.UIDSet;
+
 @Service
 @Scope(value = "prototype")
 public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentModelAction<ImapWrapper>, DSLFolder<ImapWrapper>
@@ -55,15 +79,49 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     @Autowired
     ContentActions contentActions;
 
-    private Session mailSession = null;
+    @Autowired
+    ImapStorePool imapStorePool;
+
+    @Autowired
+    ProtocolMetrics protocolMetrics;
+
     private Store imapStore = null;
+    private ImapFolderHandles folderHandles = null;
+    private ImapFolderTree folderTree = null;
     private List<Message> searchResults = null;
+    private final Map<String, SubjectIndex> subjectIndexes = new HashMap<>();
+
+    private static final int MAX_DELETION_CHECKS = 8;
 
     public Store getImapStore()
     {
         return imapStore;
     }
 
+    /**
+     * @return the folder handles of the current connection, see {@link ImapFolderHandles}
+     */
+    public ImapFolderHandles getFolderHandles()
+    {
+        return folderHandles;
+    }
+
+    /**
+     * @return the folder tree snapshot of the current connection, see {@link ImapFolderTree}
+     */
+    public ImapFolderTree getFolderTree()
+    {
+        return folderTree;
+    }
+
+    /**
+     * @return the subject index of the folder, kept for as long as the user stays connected
+     */
+    public SubjectIndex getSubjectIndex(Folder folder)
+    {
+        return subjectIndexes.computeIfAbsent(folder.getFullName(), name -> new SubjectIndex());
+    }
+
     @Override
     public ImapAssertion assertThat()
     {
@@ -78,6 +136,26 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         return new JmxUtil(this, jmxBuilder.getJmxClient());
     }
 
+    /**
+     * @return the latency metrics of the IMAP commands sent by all wrappers
+     */
+    public MetricsUtil withMetrics()
+    {
+        return new MetricsUtil(protocolMetrics.getImapMetrics());
+    }
+
+    /**
+     * Counts the IMAP commands of this wrapper, including the extra connections of a parallel {@link #copyTo(ContentModel)}
+     *
+     * @param maxCommands the most commands the DSL calls run by the budget may send
+     */
+    public CommandBudget<ImapWrapper> withCommandBudget(int maxCommands)
+    {
+        Store store = getImapStore();
+        return new CommandBudget<>(this, ProtocolMetrics.IMAP, maxCommands, listener -> imapStorePool.addListener(store, listener),
+                listener -> imapStorePool.removeListener(store, listener));
+    }
+
     /**
      * @return utilities that are used by CMIS
      */
@@ -89,15 +167,29 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     @Override
     public ImapWrapper authenticateUser(UserModel userModel) throws Exception
     {
-        return authenticateUser(userModel, emailProperties.getImapServer(), emailProperties.getImapPort());
+        return authenticateUser(userModel, emailProperties.getImapServer(), getImapPort());
     }
     
+    /**
+     * @return the IMAPS port if <code>imap.ssl.enabled</code> is set, otherwise the IMAP port
+     */
+    private int getImapPort()
+    {
+        return emailProperties.isImapSslEnabled() ? emailProperties.getImapSecurePort() : emailProperties.getImapPort();
+    }
+
     @Override
     public ImapWrapper disconnect() throws Exception
     {
         STEP(String.format("IMAP: Disconnect"));
         checkObjectIsInitialized(getImapStore(), "imapStore");
-        getImapStore().close();
+        clearSubjectIndexes();
+        folderHandles.closeAll();
+        imapStorePool.release(getImapStore());
+        // leave an unconnected store behind, so later calls fail the same way they would on a closed store
+        imapStore = Session.getInstance(new Properties()).getStore(TestGroup.IMAP);
+        folderHandles = new ImapFolderHandles(imapStore, emailProperties.getImapMaxOpenFolders());
+        folderTree = new ImapFolderTree(imapStore, emailProperties.getImapFolderSnapshotTtl());
         return this;
     }
 
@@ -225,8 +317,9 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     {
         STEP(String.format("IMAP: Create folder '%s'", folderModel.getName()));
         String folderPath = buildPath(getCurrentSpace(), folderModel.getName());
-        Folder newFolder = getImapStore().getFolder(folderPath);
+        Folder newFolder = folderHandles.get(folderPath);
         newFolder.create(Folder.HOLDS_FOLDERS);
+        folderTree.added(newFolder.getFullName());
         setLastResource(newFolder.getFullName());
         folderModel.setProtocolLocation(folderPath);
         folderModel.setCmisLocation(getLastResourceWithoutPrefix());
@@ -259,6 +352,8 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         {
             LOG.warn("IMAP: The folder has not been deleted!");
         }
+        folderHandles.forget(delFolder.getFullName());
+        folderTree.removed(delFolder.getFullName());
         dataContent.waitUntilContentIsDeleted(getLastResourceWithoutPrefix());
         return this;
     }
@@ -272,25 +367,23 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     {
         Folder delFolder = withImapUtil().getCurrentFolder();
         STEP(String.format("IMAP: Attempt to delete folder '%s' that is open", delFolder.getFullName()));
-        delFolder.open(Folder.READ_WRITE);
+        folderHandles.open(delFolder, Folder.READ_WRITE);
         delFolder.delete(true);
         return this;
     }
 
+    /**
+     * Returns the sub folders of the current folder as the server lists them now, and updates the folder tree snapshot
+     * with them, see {@link ImapFolderTree#listChildren(String)}
+     */
     @Override
     public List<FolderModel> getFolders() throws Exception
     {
-        Folder folder = null;
-
-        if (getCurrentSpace().isEmpty())
-        {
-            folder = getRootFolder();
-        }
-        else
-        {
-            folder = getFolder();
-        }
-        return getFolderModelsFromFolders(folder.list());
+        String path = getCurrentSpace().isEmpty() ? "" : Utility.removeLastSlash(getCurrentSpace());
+        List<FolderModel> folderModels = new ArrayList<>();
+        for (String name : folderTree.listChildren(path))
+            folderModels.add(new FolderModel(name));
+        return folderModels;
     }
 
     @Override
@@ -301,6 +394,8 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
             currentFolder.close(true);
         Folder newFolder = currentFolder.getParent().getFolder(newName);
         currentFolder.renameTo(newFolder);
+        folderHandles.forget(currentFolder.getFullName());
+        folderTree.renamed(currentFolder.getFullName(), newFolder.getFullName());
         setLastResource(newFolder.getFullName());
         return this;
     }
@@ -312,29 +407,21 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         return null;
     }
 
+    /**
+     * Copy the current folder with its sub folders and messages to the destination folder, see {@link FolderTreeCopy}.
+     * The number of connections used is set by <code>imap.copy.parallelism</code>.
+     */
     @Override
     public ImapWrapper copyTo(ContentModel destination) throws Exception
     {
         Folder currentFolder = withImapUtil().getCurrentFolder();
         Folder destinationFolder = withImapUtil().getFolder(destination);
+        STEP(String.format("IMAP: Copy folder '%s' to '%s'", currentFolder.getFullName(), destinationFolder.getFullName()));
 
-        FolderModel theCopy = new FolderModel(currentFolder.getName());
-        usingResource(destination).createFolder(theCopy);
-        destination = theCopy;
-        setLastResource(currentFolder.getFullName());
-        copyMessagesTo(destination);
+        usingResource(destination);
+        new FolderTreeCopy(imapStorePool, imapStore, emailProperties.getImapCopyParallelism()).copy(currentFolder, destinationFolder);
+        folderTree.invalidate();
 
-        currentFolder.open(Folder.READ_ONLY);
-
-        if (currentFolder.list().length != 0)
-        {
-            for (Folder folder : currentFolder.list())
-            {
-                setLastResource(folder.getFullName());
-                copyTo(theCopy);
-            }
-        }
-        
         setLastResource(destinationFolder.getFullName());
         return this;
     }
@@ -353,7 +440,10 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
 
     /**
      * Delete specified message(s) (content) by given name. A message in IMAP client can be identified by the name of the content.
-     * Parent folder must be closed at the end in order message to be deleted.
+     * The names are resolved to UIDs through the {@link SubjectIndex} of the folder, all messages are flagged with one
+     * <code>UID STORE</code> and only those are removed with <code>UID EXPUNGE</code>, see {@link ImapCommands#uidExpunge}.
+     * The deletion is confirmed by the EXPUNGE responses of the IMAP server, see {@link ExpungeWait}. Contents that are
+     * not confirmed within <code>imap.expunge.timeoutMs</code> are checked in the repository, all at the same time.
      * 
      * @param contentNames name of the content(s)
      * @return current wrapper
@@ -361,30 +451,85 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
      */
     public ImapWrapper deleteMessage(String... contentNames) throws Exception
     {
-        Folder folder = getImapStore().getFolder(getCurrentSpace());
-        folder.open(Folder.READ_WRITE);
-        List<Message> messages = Arrays.asList(folder.getMessages());
+        Folder folder = folderHandles.open(getCurrentSpace(), Folder.READ_WRITE);
+        Map<String, List<Long>> uidsBySubject = getSubjectIndex(folder).getUids(folder, Arrays.asList(contentNames));
+        List<Long> uids = new ArrayList<>();
+        for (Map.Entry<String, List<Long>> entry : uidsBySubject.entrySet())
+        {
+            LOG.info("Deleting message with subject: {} ", entry.getKey());
+            uids.addAll(entry.getValue());
+        }
 
-        for (String contentName : contentNames )
+        Map<String, List<Message>> deletedMessages = new LinkedHashMap<>();
+        for (String contentName : uidsBySubject.keySet())
+            deletedMessages.put(contentName, new ArrayList<>());
+        if (!uids.isEmpty())
         {
-            LOG.info("Deleting message with subject: {} ", contentName);
+            long[] uidArray = uids.stream().mapToLong(Long::longValue).toArray();
+            Message[] messages = ((UIDFolder) folder).getMessagesByUID(uidArray);
+            int index = 0;
+            for (Map.Entry<String, List<Long>> entry : uidsBySubject.entrySet())
+                for (int i = 0; i < entry.getValue().size(); i++, index++)
+                    if (messages[index] != null)
+                        deletedMessages.get(entry.getKey()).add(messages[index]);
+
+            String uidSet = ImapCommands.toUidSet(uids);
+            ImapCommands.uidStore(folder, uidSet, "+FLAGS.SILENT", "(\\Deleted)");
+            LOG.info("Marked DELETE for messages {} ", uidSet);
+            List<Message> existing = new ArrayList<>();
             for (Message message : messages)
-                if (message.getSubject().equals(contentName))
-                {
-                    message.setFlag(Flags.Flag.DELETED, true);
-                    LOG.info("Marked DELETE for message {} ", message.getSubject());
-                }
+                if (message != null)
+                    existing.add(message);
+            ImapCommands.uidExpunge(folder, existing.toArray(new Message[0]));
         }
+        Set<String> unconfirmed = ExpungeWait.waitUntilExpunged(folder, deletedMessages, emailProperties.getImapExpungeTimeout());
 
-        folder.close(true);
-        folder.open(Folder.READ_WRITE);
-
-        for (String contentName : contentNames)
-            dataContent.waitUntilContentIsDeleted(getLastResourceWithoutPrefix() + "/" + contentName);
+        List<String> contentPaths = new ArrayList<>();
+        for (String contentName : unconfirmed)
+            contentPaths.add(getLastResourceWithoutPrefix() + "/" + contentName);
+        waitUntilContentsAreDeleted(contentPaths);
 
         return this;
     }
 
+    /**
+     * Waits until the repository has deleted the contents, checking all of them at the same time
+     */
+    private void waitUntilContentsAreDeleted(List<String> contentPaths) throws Exception
+    {
+        if (contentPaths.isEmpty())
+            return;
+        LOG.info("IMAP: Checking the deletion of {} in the repository", contentPaths);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(contentPaths.size(), MAX_DELETION_CHECKS));
+        try
+        {
+            List<Future<Void>> checks = new ArrayList<>();
+            for (String contentPath : contentPaths)
+                checks.add(executor.submit(() -> {
+                    dataContent.waitUntilContentIsDeleted(contentPath);
+                    return null;
+                }));
+            for (Future<Void> check : checks)
+            {
+                try
+                {
+                    check.get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Delete current message. Parent folder must be closed at the end in order message to be deleted.
      * 
@@ -399,8 +544,7 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         String fileName = file.getName();
         STEP(String.format("IMAP: Delete message with subject '%s'", fileName));
         
-        Folder folder = getImapStore().getFolder(Utility.getParentPath(getCurrentSpace()));
-        folder.open(Folder.READ_WRITE);
+        Folder folder = folderHandles.refresh(folderHandles.open(Utility.getParentPath(getCurrentSpace()), Folder.READ_WRITE));
         List<Message> messages = Arrays.asList(folder.getMessages());
         for (Message message : messages)
         {
@@ -409,7 +553,7 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
                 message.setFlag(Flags.Flag.DELETED, true);
                 LOG.info("Marked DELETE for message {}", message.getSubject());
                 folder.close(true);
-                folder.open(Folder.READ_WRITE);
+                folderHandles.open(folder, Folder.READ_WRITE);
                 dataContent.waitUntilContentIsDeleted(getLastResourceWithoutPrefix());
                 break;
             }
@@ -440,36 +584,18 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         return this;
     }
 	
-    private Folder getRootFolder() throws Exception
-    {
-        return getImapStore().getDefaultFolder();
-    }
-
     private Folder getFolder() throws Exception
     {
-        return getImapStore().getFolder(Utility.removeLastSlash(getCurrentSpace()));
+        return folderHandles.get(Utility.removeLastSlash(getCurrentSpace()));
     }	
    
-    /**
-     * Helper method that returns list of FolderModel from mail folder
-     */
-    private List<FolderModel> getFolderModelsFromFolders(Folder[] folders)
-    {
-        List<FolderModel> folderModels = new ArrayList<>();
-        for (Folder folder : folders)
-            folderModels.add(new FolderModel(folder.getName()));
-        return folderModels;
-    }
-
     public ImapWrapper copyMessageTo(ContentModel destinationContentModel) throws Exception
     {
         File file = new File(getLastResource());
         STEP(String.format("IMAP: Copy message with subject '%s' to '%s'", file.getName(), destinationContentModel.getName()));
-        Folder folder = getImapStore().getFolder(Utility.removeLastSlash(getLastResource())).getParent();
+        Folder folder = folderHandles.open(folderHandles.getParent(getLastResource()), Folder.READ_ONLY);
         Folder destination = withImapUtil().getFolder(destinationContentModel);
-        folder.open(Folder.READ_ONLY);
-        destination.open(Folder.READ_WRITE);
-        Message message = withImapUtil().getMessageBySubject(folder.getMessages(), file.getName());
+        Message message = withImapUtil().getMessageBySubject(folder, file.getName());
         Message[] messages = {};
         if(message == null)
         {
@@ -479,7 +605,7 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         {
             messages = new Message[]{message};
         }
-        destination.appendMessages(messages);
+        ImapCommands.copyMessages(folder, messages, destination);
         if (destinationContentModel.getProtocolLocation().startsWith(getPrefixSpace()))
             setLastResource(destinationContentModel.getProtocolLocation());
         else
@@ -489,6 +615,7 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
 
     /**
      * Copy all messages from current folder to destination folder 
+     * The messages are copied by the server, see {@link ImapCommands#copyAllMessages}
      * 
      * @param destinationContentModel destination folder
      * @return
@@ -497,17 +624,17 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     public ImapWrapper copyMessagesTo(ContentModel destinationContentModel) throws Exception
     {
         STEP(String.format("IMAP: Copy messages to '%s'", destinationContentModel.getName()));
-        Folder folder = getImapStore().getFolder(Utility.removeLastSlash(getLastResource()));
+        Folder folder = folderHandles.refresh(folderHandles.open(Utility.removeLastSlash(getLastResource()), Folder.READ_ONLY));
         Folder destination = withImapUtil().getFolder(destinationContentModel);
-        folder.open(Folder.READ_ONLY);
-        destination.open(Folder.READ_WRITE);
-        destination.appendMessages(folder.getMessages());
+        ImapCommands.copyAllMessages(folder, destination);
         setLastResource(getPrefixSpace() + destinationContentModel.getProtocolLocation());
         return this;
     }
     
     /**
-     * Rename message to the name of new content
+     * Rename message to the name of new content.
+     * The content is renamed in the repository, so the message keeps its UID and the {@link SubjectIndex} of the folder
+     * is dropped; the next lookup reads the subjects again.
      * 
      * @param newContent
      * @return
@@ -519,12 +646,37 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         STEP(String.format("IMAP: Rename message '%s' to '%s'", fileName, newContent.getName()));
         String currentSiteName = withImapUtil().getCurrentSiteName();
         contentActions.renameContent(this.getCurrentUser().getUsername(), this.getCurrentUser().getPassword(), currentSiteName, fileName, newContent.getName());
+        invalidateSubjectIndex(folderHandles.getParent(getLastResource()));
         setLastResource(newContent.getProtocolLocation());
         return this;
     }
 
+    /**
+     * Drops the subject indexes of all folders, before the connection goes back to the pool
+     */
+    private void clearSubjectIndexes()
+    {
+        for (SubjectIndex subjectIndex : subjectIndexes.values())
+            subjectIndex.invalidate();
+        subjectIndexes.clear();
+    }
+
+    /**
+     * Drops the subject index of the folder, after a change made outside IMAP: the index only follows messages that
+     * were added or expunged, not messages whose subject changed under the same UID
+     */
+    private void invalidateSubjectIndex(Folder folder)
+    {
+        SubjectIndex subjectIndex = subjectIndexes.remove(folder.getFullName());
+        if (subjectIndex != null)
+            subjectIndex.invalidate();
+    }
+
     /**
      * Move all messages from current folder to destination folder 
+     * The message is moved by the server, see {@link ImapCommands#moveMessages}. As with {@link #deleteMessage(String...)}
+     * the call returns once the EXPUNGE of the source message confirms the move, or else the repository no longer has
+     * the source content.
      * 
      * @param destinationContentModel destination folder
      * @return
@@ -534,24 +686,27 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     {
         File file = new File(getLastResource());
         STEP(String.format("IMAP: Move message '%s' to '%s'", file.getName(), destinationContentModel.getName()));
-        Folder folder = getImapStore().getFolder(Utility.removeLastSlash(getLastResource())).getParent();
+        Folder folder = folderHandles.open(folderHandles.getParent(getLastResource()), Folder.READ_WRITE);
         Folder destination = withImapUtil().getFolder(destinationContentModel);
-        folder.open(Folder.READ_ONLY);
-        destination.open(Folder.READ_WRITE);
-        Message message = withImapUtil().getMessageBySubject(folder.getMessages(), file.getName());
+        Message message = withImapUtil().getMessageBySubject(folder, file.getName());
         if(message == null)
             throw new MessagingException("There is no message to be moved");
         Message[] messages = new Message[]{message};
-        destination.appendMessages(messages);
+        ImapCommands.moveMessages(folder, messages, destination);
+        Map<String, List<Message>> movedMessages = new LinkedHashMap<>();
+        movedMessages.put(file.getName(), new ArrayList<>(Arrays.asList(messages)));
+        if (!ExpungeWait.waitUntilExpunged(folder, movedMessages, emailProperties.getImapExpungeTimeout()).isEmpty())
+            waitUntilContentsAreDeleted(Collections.singletonList(getLastResourceWithoutPrefix()));
+        // the message count of the open folder would still include the moved message
+        folderHandles.close(folder.getFullName(), false);
         setCurrentSpace(folder.getFullName());
-        deleteMessage(file.getName());
         setLastResource(getPrefixSpace() + destinationContentModel.getProtocolLocation());
         return this;
     }
 
     public ImapWrapper authenticateUser(UserModel userModel, String host) throws Exception
     {
-        return authenticateUser(userModel, host, emailProperties.getImapPort());
+        return authenticateUser(userModel, host, getImapPort());
     }
 
     public ImapWrapper authenticateUser(UserModel userModel, int port) throws Exception
@@ -559,20 +714,28 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         return authenticateUser(userModel, emailProperties.getImapServer(), port);
     }
 
+    /**
+     * Connects with IMAP, or IMAPS if <code>imap.ssl.enabled</code> is set. COMPRESS=DEFLATE is negotiated if
+     * <code>imap.compress.enabled</code> is set and the server supports it.
+     */
     public ImapWrapper authenticateUser(UserModel userModel, String host, int port) throws Exception
     {
+        ImapConnectionOptions options = ImapConnectionOptions.from(emailProperties);
         STEP(String.format("IMAP: Connect with %s/%s using port %d and host %s", userModel.getUsername(), userModel.getPassword(), port, host));
-        Properties prop = new Properties();
-        prop.put("host", host);
-        prop.put("port", port);
-        LOG.info("IMAP Server [{}], port [{}]", host, port);
+        LOG.info("IMAP Server [{}], port [{}], connection [{}]", host, port, options);
 
-        mailSession = Session.getInstance(prop);
-
-        imapStore = mailSession.getStore(TestGroup.IMAP);
+        clearSubjectIndexes();
+        if (imapStore != null)
+        {
+            folderHandles.closeAll();
+            imapStorePool.release(imapStore);
+        }
+        imapStore = null;
         try
         {
-            getImapStore().connect(host, port, userModel.getUsername(), userModel.getPassword());
+            imapStore = imapStorePool.borrow(host, port, userModel, options);
+            folderHandles = new ImapFolderHandles(imapStore, emailProperties.getImapMaxOpenFolders());
+            folderTree = new ImapFolderTree(imapStore, emailProperties.getImapFolderSnapshotTtl());
         }
         catch (MessagingException authEx)
         {
@@ -592,14 +755,70 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
     public MessageFlags withMessage() throws Exception
     {
         String fileName = withImapUtil().getObjectName(getLastResource());
-        Folder currentFolder = withImapUtil().getCurrentFolder().getParent();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_WRITE);
-        return new MessageFlags(this, withImapUtil().getMessageBySubject(currentFolder.getMessages(), fileName));
+        Folder currentFolder = folderHandles.open(withImapUtil().getCurrentParentFolder(), Folder.READ_WRITE);
+        return new MessageFlags(this, withImapUtil().getMessageBySubject(currentFolder, fileName));
+    }
+
+    /**
+     * Starts process of working with the flags of all messages from current folder with the given subjects.
+     * The subjects are resolved to UIDs through the {@link SubjectIndex} of the folder, see {@link BulkMessageFlags}
+     * 
+     * @param subjects subjects (content names) of the messages
+     * @return
+     * @throws Exception
+     */
+    public BulkMessageFlags withMessages(String... subjects) throws Exception
+    {
+        Folder folder = folderHandles.open(getCurrentSpace(), Folder.READ_WRITE);
+        SubjectIndex subjectIndex = getSubjectIndex(folder);
+        long[] uids = new long[subjects.length];
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < subjects.length; i++)
+        {
+            Long uid = subjectIndex.getUid(folder, subjects[i]);
+            if (uid == null)
+                missing.add(subjects[i]);
+            else
+                uids[i] = uid;
+        }
+        if (!missing.isEmpty())
+            throw new MessagingException(String.format("No messages with subjects %s have been found", missing));
+        Arrays.sort(uids);
+        return new BulkMessageFlags(this, folder, UIDSet.toString(UIDSet.createUIDSets(uids)), String.format("%d messages", subjects.length));
+    }
+
+    /**
+     * Starts process of working with the flags of the messages from current folder with UIDs between <code>firstUid</code>
+     * and <code>lastUid</code> (inclusive), see {@link BulkMessageFlags}
+     * 
+     * @return
+     * @throws Exception
+     */
+    public BulkMessageFlags withMessages(long firstUid, long lastUid) throws Exception
+    {
+        Folder folder = folderHandles.open(getCurrentSpace(), Folder.READ_WRITE);
+        return new BulkMessageFlags(this, folder, firstUid + ":" + lastUid, String.format("messages with UIDs %d:%d", firstUid, lastUid));
     }
 
     /**
-     * Search subject message for searched term that can contains wild cards
+     * Starts process of working with the flags of the messages returned by the last search, see {@link BulkMessageFlags}
+     * 
+     * @return
+     * @throws Exception
+     */
+    public BulkMessageFlags withSearchResults() throws Exception
+    {
+        checkObjectIsInitialized(searchResults, "searchResults");
+        if (searchResults.isEmpty())
+            throw new MessagingException("There are no search results");
+        Folder folder = folderHandles.open(searchResults.get(0).getFolder(), Folder.READ_WRITE);
+        String uidSet = ImapCommands.toUidSet(folder, searchResults.toArray(new Message[0]));
+        return new BulkMessageFlags(this, folder, uidSet, String.format("%d search results", searchResults.size()));
+    }
+
+    /**
+     * Search subject message for searched term that can contains wild cards.
+     * The server narrows down the messages by the literal parts of the term, see {@link ImapSearch#searchSubjectMatching}
      * 
      * @param searchedTerm
      * @return
@@ -610,30 +829,14 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         Folder folder = getFolder();
 
         STEP(String.format("IMAP: Search for term '%s' in current folder '%s'", searchedTerm, folder.getName()));
-        folder.open(Folder.READ_WRITE);
-
-        @SuppressWarnings("serial")
-        SearchTerm term = new SearchTerm() {
-            @Override
-            public boolean match(Message message) {
-                try {
-                    if (message.getSubject().matches(searchedTerm)) {
-                        return true;
-                    }
-                } catch (MessagingException ex) {
-                    ex.printStackTrace();
-                }
-                return false;
-            }
-        };
-
+        folderHandles.refresh(folderHandles.open(folder, Folder.READ_WRITE));
 
-        searchResults = Arrays.asList(folder.search(term));
+        searchResults = ImapSearch.searchSubjectMatching(folder, searchedTerm);
         return this;
     }
     
     /**
-     * Search subject message for searched term
+     * Search subject message for searched term. The search is done by the IMAP server, see {@link ImapSearch#searchSubject}
      * 
      * @param searchedTerm
      * @return
@@ -644,24 +847,9 @@ public class ImapWrapper extends DSLProtocol<ImapWrapper> implements DSLContentM
         Folder folder = getFolder();
     
         STEP(String.format("IMAP: Search for term '%s' in current folder '%s'", searchedTerm, folder.getName()));
-        folder.open(Folder.READ_WRITE);
-
-        @SuppressWarnings("serial")
-        SearchTerm term = new SearchTerm() {
-            @Override
-            public boolean match(Message message) {
-                try {
-                    if (message.getSubject().contains(searchedTerm)) {
-                        return true;
-                    }
-                } catch (MessagingException ex) {
-                    ex.printStackTrace();
-                }
-                return false;
-            }
-        };
-        
-        searchResults = Arrays.asList(folder.search(term));
+        folderHandles.open(folder, Folder.READ_WRITE);
+
+        searchResults = ImapSearch.searchSubject(folder, searchedTerm);
         return this;
     }
     
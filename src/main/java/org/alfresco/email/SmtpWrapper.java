@@ -2,16 +2,31 @@ package org.alfresco.email;
 
 import static org.alfresco.utility.report.log.Step.STEP;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
-import jakarta.mail.Authenticator;
-import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
 import jakarta.mail.Session;
 import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
 
+import org.alfresco.email.connection.PipeliningSmtpTransport;
+import org.alfresco.email.connection.SmtpSendExecutor;
+import org.alfresco.email.connection.SmtpTransportPool;
+import org.alfresco.email.dsl.CommandBudget;
 import org.alfresco.email.dsl.JmxUtil;
+import org.alfresco.email.dsl.MetricsUtil;
+import org.alfresco.email.dsl.smtp.BatchReport;
 import org.alfresco.email.dsl.smtp.ComposeMessage;
 import org.alfresco.email.dsl.smtp.SmtpAssertion;
+import org.alfresco.email.metrics.ProtocolMetrics;
+import org.alfresco.email.metrics.CommandTimer;
+import org.alfresco.utility.Utility;
 import org.alfresco.utility.dsl.DSLProtocol;
 import org.alfresco.utility.exception.TestConfigurationException;
 import org.alfresco.utility.model.ContentModel;
@@ -27,8 +42,17 @@ public class SmtpWrapper extends DSLProtocol<SmtpWrapper>
 {
     @Autowired
     EmailProperties emailProperties;
+    @Autowired
+    ProtocolMetrics protocolMetrics;
+    @Autowired
+    SmtpTransportPool smtpTransportPool;
+    @Autowired
+    SmtpSendExecutor smtpSendExecutor;
     private Transport transport;
     private Session session = null;
+    /* the port and sender of the current transport, the asynchronous sends borrow transports for the same */
+    private int smtpPort;
+    private UserModel sender;
 
     public Transport getTransport()
     {
@@ -54,90 +78,39 @@ public class SmtpWrapper extends DSLProtocol<SmtpWrapper>
     
     public SmtpWrapper authenticateUser(UserModel userModel, String smtpPort) throws Exception
     {
-        Properties props = new Properties();
-        STEP(String.format("SMTP: Authenticate with %s/%s on using port %d", userModel.getUsername(), userModel.getPassword(), smtpPort));
-
-        props.put("mail.smtp.host", emailProperties.getSmtpServer());
-        props.put("mail.smtp.port", smtpPort);
-
-        if (emailProperties.isSmtpTSLEnabled())
-        {
-            LOG.info("TSL Enabled for SMTP..");
-            props.put("mail.smtp.starttls.enable", "true");
-        }
-
-        if (emailProperties.isSmtpAuthEnabled())
-        {
-            props.put("mail.smtp.auth", "true");
-            LOG.info("Authentication enabled based on property settings, connecting with {} to SMTP email server", userModel.toString());
-            new Authenticator()
-            {
-            };
-            session = Session.getInstance(props, new jakarta.mail.Authenticator()
-            {
-                protected PasswordAuthentication getPasswordAuthentication()
-                {
-                    return new PasswordAuthentication(userModel.getUsername(), userModel.getPassword());
-                }
-            });
-
-            transport = session.getTransport("smtp");
-            transport.connect(userModel.getUsername(), userModel.getPassword());
-        }
-        else
-        {
-            STEP(String.format("SMTP: Authentication disabled based on property settings, connecting anonymous to SMTP email server"));
-            session = Session.getInstance(props);
-            transport = session.getTransport("smtp");
-            UserModel annonymous = new UserModel("anonymous", "");
-            transport.connect(annonymous.getUsername(), annonymous.getPassword());
-        }
-
-        setTestUser(userModel);
-        return this;
+        return authenticateUser(userModel, Integer.parseInt(smtpPort));
     }
 
+    /**
+     * Borrows a connected transport from the {@link SmtpTransportPool}; the transport of a previous login goes back to
+     * the pool
+     */
     public SmtpWrapper authenticateUser(UserModel userModel, int smtpPort) throws Exception
     {
-        Properties props = new Properties();
         STEP(String.format("SMTP: Authenticate with %s/%s on using port %d", userModel.getUsername(), userModel.getPassword(), smtpPort));
 
-        props.put("mail.smtp.host", emailProperties.getSmtpServer());
-        props.put("mail.smtp.port", smtpPort);
-
         if (emailProperties.isSmtpTSLEnabled())
-        {
             LOG.info("TSL Enabled for SMTP..");
-            props.put("mail.smtp.starttls.enable", "true");
-        }
 
+        UserModel sender = userModel;
         if (emailProperties.isSmtpAuthEnabled())
-        {
-            props.put("mail.smtp.auth", "true");
             LOG.info("Authentication enabled based on property settings, connecting with {} to SMTP email server", userModel.toString());
-            new Authenticator()
-            {
-            };
-            session = Session.getInstance(props, new jakarta.mail.Authenticator()
-            {
-                protected PasswordAuthentication getPasswordAuthentication()
-                {
-                    return new PasswordAuthentication(userModel.getUsername(), userModel.getPassword());
-                }
-            });
-
-            transport = session.getTransport("smtp");
-            transport.connect(userModel.getUsername(), userModel.getPassword());
-        }
         else
         {
             STEP(String.format("SMTP: Authentication disabled based on property settings, connecting anonymous to SMTP email server"));
-            session = Session.getInstance(props);
-            transport = session.getTransport("smtp");
-            UserModel annonymous = new UserModel("anonymous", "");
-            transport.connect(annonymous.getUsername(), annonymous.getPassword());
+            sender = new UserModel("anonymous", "");
         }
 
+        if (transport != null)
+            smtpTransportPool.release(transport);
+        transport = null;
+        session = null;
+        transport = smtpTransportPool.borrow(emailProperties.getSmtpServer(), smtpPort, sender, emailProperties.isSmtpTSLEnabled(),
+                emailProperties.isSmtpAuthEnabled());
+        session = smtpTransportPool.getSession(transport);
+        this.smtpPort = smtpPort;
+        this.sender = sender;
+
         setTestUser(userModel);
         return this;
     }
@@ -146,7 +119,10 @@ public class SmtpWrapper extends DSLProtocol<SmtpWrapper>
     public SmtpWrapper disconnect() throws Exception
     {
         STEP("SMTP: Disconnect SMTP Client");
-        getTransport().close();        
+        smtpTransportPool.release(getTransport());
+        session = null;
+        // leave an unconnected transport behind, so later calls fail the same way they would on a closed transport
+        transport = Session.getInstance(new Properties()).getTransport("smtp");
         return this;
     }
 
@@ -237,6 +213,31 @@ public class SmtpWrapper extends DSLProtocol<SmtpWrapper>
         return new JmxUtil(this, jmxBuilder.getJmxClient());
     }
 
+    /**
+     * @return the latency metrics of the SMTP commands sent by all wrappers
+     */
+    public MetricsUtil withMetrics()
+    {
+        return new MetricsUtil(protocolMetrics.getSmtpMetrics());
+    }
+
+    /**
+     * Counts the SMTP commands sent on the current transport
+     *
+     * @param maxCommands the most commands the DSL calls run by the budget may send
+     */
+    public CommandBudget<SmtpWrapper> withCommandBudget(int maxCommands)
+    {
+        CommandTimer timer = session == null ? null : CommandTimer.of(session);
+        return new CommandBudget<>(this, ProtocolMetrics.SMTP, maxCommands, listener ->
+        {
+            if (timer == null)
+                return false;
+            timer.addListener(listener);
+            return true;
+        }, listener -> timer.removeListener(listener));
+    }
+
     public boolean isConnected()
     {       
         return transport.isConnected();
@@ -246,4 +247,111 @@ public class SmtpWrapper extends DSLProtocol<SmtpWrapper>
     {
         return new ComposeMessage(this, session);
     }
+
+    /**
+     * Sends the message on another pooled transport of the current user, on a thread of the {@link SmtpSendExecutor}.
+     * Blocks while <code>smtp.async.maxInFlight</code> messages are waiting to be sent.
+     *
+     * @return completes when the server accepted the message, exceptionally if it did not
+     */
+    public CompletableFuture<SmtpWrapper> sendMailAsync(Message message) throws Exception
+    {
+        Utility.checkObjectIsInitialized(sender, "sender");
+        String host = emailProperties.getSmtpServer();
+        int port = smtpPort;
+        UserModel user = sender;
+        boolean startTls = emailProperties.isSmtpTSLEnabled();
+        boolean authenticate = emailProperties.isSmtpAuthEnabled();
+        return smtpSendExecutor.submit(() ->
+        {
+            Transport another = smtpTransportPool.borrow(host, port, user, startTls, authenticate);
+            try
+            {
+                another.sendMessage(message, message.getAllRecipients());
+            }
+            finally
+            {
+                smtpTransportPool.release(another);
+            }
+        }).thenApply(sent -> this);
+    }
+
+    /**
+     * Sends the messages one after the other on the current transport, with MAIL FROM and all RCPT TO in one pipelined
+     * group if the server advertises PIPELINING and <code>smtp.pipelining.enabled</code> is set. A message the server rejects does not stop the batch.
+     * Either way a message reaches the recipients the server accepts, and the rejected ones are listed in its status.
+     *
+     * @return the status of every message and the throughput of the batch
+     */
+    public BatchReport sendBatch(Iterable<ComposeMessage> messages) throws Exception
+    {
+        Utility.checkObjectIsInitialized(transport, "transport");
+        boolean pipelined = emailProperties.isSmtpPipeliningEnabled() && transport instanceof PipeliningSmtpTransport
+                && ((PipeliningSmtpTransport) transport).supportsPipelining();
+        STEP(String.format("SMTP: Send a batch of messages%s", pipelined ? " with pipelining" : ""));
+
+        BatchReport report = new BatchReport(this, pipelined);
+        String lastSubject = null;
+        long batchStartedAt = System.nanoTime();
+        for (ComposeMessage composeMessage : messages)
+        {
+            long startedAt = System.nanoTime();
+            Message message = composeMessage.toMessage();
+            List<String> rejected = new ArrayList<>();
+            String error = null;
+            try
+            {
+                if (pipelined)
+                {
+                    for (Address recipient : ((PipeliningSmtpTransport) transport).sendPipelined((MimeMessage) message, message.getAllRecipients()))
+                        rejected.add(recipient.toString());
+                }
+                else
+                    rejected.addAll(sendPartially(message));
+                lastSubject = message.getSubject();
+            }
+            catch (MessagingException | IllegalStateException e)
+            {
+                // IllegalStateException: the connection was lost on an earlier message
+                error = e.getMessage();
+                LOG.warn("SMTP: Failed to send '{}' of the batch: {}", message.getSubject(), error);
+            }
+            report.add(new BatchReport.MessageStatus(message.getSubject(), rejected, error, System.nanoTime() - startedAt));
+        }
+        report.finish(System.nanoTime() - batchStartedAt);
+
+        if (lastSubject != null && getCurrentSpace() != null)
+            setLastResource(Utility.buildPath(getCurrentSpace(), lastSubject));
+        STEP(String.format("SMTP: %s", report));
+        return report;
+    }
+
+    /**
+     * Sends the message with <code>mail.smtp.sendpartial</code>, so like {@link PipeliningSmtpTransport#sendPipelined}
+     * it reaches the accepted recipients and the rejected ones are returned
+     */
+    private List<String> sendPartially(Message message) throws MessagingException
+    {
+        List<String> rejected = new ArrayList<>();
+        try
+        {
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+        catch (SendFailedException e)
+        {
+            Address[] sent = e.getValidSentAddresses();
+            Address[] invalid = e.getInvalidAddresses();
+            if (invalid == null || invalid.length == 0)
+                throw e;
+            if (sent == null || sent.length == 0)
+            {
+                Exception response = e.getNextException();
+                throw new SendFailedException("All recipients rejected: " + (response == null ? e.getMessage() : response.getMessage()), e,
+                        null, null, invalid);
+            }
+            for (Address recipient : invalid)
+                rejected.add(recipient.toString());
+        }
+        return rejected;
+    }
 }
@@ -0,0 +1,102 @@
+package org.alfresco.email.connection;
+
+import java.util.Objects;
+import java.util.Properties;
+
+import org.alfresco.email.EmailProperties;
+import org.alfresco.utility.model.TestGroup;
+
+/**
+ * Transport options of an IMAP connection: IMAPS (IMAP over TLS) and COMPRESS=DEFLATE (RFC 4978).
+ * Compression is only started after login and only if the server announces COMPRESS=DEFLATE, so it can be enabled for
+ * any server. The options are part of the key of pooled connections, see {@link ImapStorePool}.
+ */
+public final class ImapConnectionOptions
+{
+    public static final ImapConnectionOptions PLAIN = new ImapConnectionOptions(false, null, false, -1);
+
+    private final boolean ssl;
+    private final String sslTrust;
+    private final boolean compress;
+    private final int compressLevel;
+
+    /**
+     * @param ssl connect with IMAPS
+     * @param sslTrust hosts whose certificates are trusted without validation, "*" for all, or null
+     * @param compress negotiate COMPRESS=DEFLATE
+     * @param compressLevel deflate level from 0 to 9, or -1 for the default level
+     */
+    public ImapConnectionOptions(boolean ssl, String sslTrust, boolean compress, int compressLevel)
+    {
+        this.ssl = ssl;
+        this.sslTrust = sslTrust == null || sslTrust.isEmpty() ? null : sslTrust;
+        this.compress = compress;
+        this.compressLevel = compressLevel;
+    }
+
+    public static ImapConnectionOptions from(EmailProperties emailProperties)
+    {
+        return new ImapConnectionOptions(emailProperties.isImapSslEnabled(), emailProperties.getImapSslTrust(),
+                emailProperties.isImapCompressEnabled(), emailProperties.getImapCompressLevel());
+    }
+
+    public boolean isSsl()
+    {
+        return ssl;
+    }
+
+    public boolean isCompress()
+    {
+        return compress;
+    }
+
+    /**
+     * @return the Jakarta Mail store protocol, "imaps" or "imap"
+     */
+    public String getProtocol()
+    {
+        return ssl ? "imaps" : TestGroup.IMAP;
+    }
+
+    /**
+     * @return the session properties that select the options for {@link #getProtocol()}
+     */
+    public Properties toSessionProperties()
+    {
+        String prefix = "mail." + getProtocol() + ".";
+        Properties properties = new Properties();
+        if (ssl && sslTrust != null)
+            properties.put(prefix + "ssl.trust", sslTrust);
+        if (compress)
+        {
+            properties.put(prefix + "compress.enable", "true");
+            if (compressLevel >= 0)
+                properties.put(prefix + "compress.level", String.valueOf(compressLevel));
+        }
+        return properties;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof ImapConnectionOptions))
+            return false;
+        ImapConnectionOptions other = (ImapConnectionOptions) o;
+        return ssl == other.ssl && compress == other.compress && compressLevel == other.compressLevel
+                && Objects.equals(sslTrust, other.sslTrust);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(ssl, sslTrust, compress, compressLevel);
+    }
+
+    @Override
+    public String toString()
+    {
+        return (ssl ? "IMAPS" : "IMAP") + (compress ? "+COMPRESS" : "");
+    }
+}
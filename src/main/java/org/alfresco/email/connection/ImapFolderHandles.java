@@ -0,0 +1,191 @@
+package org.alfresco.email.connection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.mail.Folder;
+import jakarta.mail.FolderClosedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+
+import com.sun.mail.imap.IMAPFolder;
+
+/**
+ * Keeps one {@link Folder} object per mailbox path for the lifetime of an IMAP connection.
+ * Every opened IMAP folder holds its own server connection, so reusing the handle saves a connection, a LOGIN and a
+ * SELECT on every chained DSL call. A folder opened READ_ONLY is reopened READ_WRITE only when a caller needs it, and
+ * only the <code>maxOpenFolders</code> most recently used folders are kept open.
+ */
+public class ImapFolderHandles
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    public static final char SEPARATOR = '/';
+
+    private final Store store;
+    private final int maxOpenFolders;
+    private final Map<String, Folder> folders = new LinkedHashMap<>(16, 0.75f, true);
+
+    public ImapFolderHandles(Store store, int maxOpenFolders)
+    {
+        this.store = store;
+        this.maxOpenFolders = maxOpenFolders;
+    }
+
+    /**
+     * Returns the folder handle for the path. An open handle is returned as it is, see {@link #refresh(Folder)}.
+     */
+    public synchronized Folder get(String path) throws MessagingException
+    {
+        String fullName = normalize(path);
+        Folder folder = folders.get(fullName);
+        if (folder == null)
+        {
+            folder = fullName.isEmpty() ? store.getDefaultFolder() : store.getFolder(fullName);
+            folders.put(fullName, folder);
+        }
+        return folder;
+    }
+
+    /**
+     * Sends a NOOP if the folder is open, so that it reflects changes made since it was last used (new or expunged
+     * messages, flags). Only needed before reading state the folder keeps, e.g. the message count.
+     */
+    public synchronized Folder refresh(Folder folder) throws MessagingException
+    {
+        if (folder.isOpen() && folder instanceof IMAPFolder)
+        {
+            try
+            {
+                ((IMAPFolder) folder).doCommand(protocol -> {
+                    protocol.noop();
+                    return null;
+                });
+            }
+            catch (FolderClosedException e)
+            {
+                LOG.info("IMAP: Folder '{}' was closed by the server, it will be reopened on next use", folder.getFullName());
+            }
+        }
+        return folder;
+    }
+
+    /**
+     * Returns the handle of the parent folder of the path
+     */
+    public Folder getParent(String path) throws MessagingException
+    {
+        String fullName = normalize(path);
+        int index = fullName.lastIndexOf(SEPARATOR);
+        return get(index < 0 ? "" : fullName.substring(0, index));
+    }
+
+    /**
+     * Returns the open folder for the path, see {@link #open(Folder, int)}
+     */
+    public Folder open(String path, int mode) throws MessagingException
+    {
+        return open(get(path), mode);
+    }
+
+    /**
+     * Makes sure the folder is open in at least the requested mode. An open READ_WRITE folder is reused for READ_ONLY
+     * access; an open READ_ONLY folder is closed and reopened when READ_WRITE is requested. A folder object other
+     * than the handle of its path replaces the handle, which is closed, so the path never has two open folders.
+     */
+    public synchronized Folder open(Folder folder, int mode) throws MessagingException
+    {
+        Folder previous = folders.put(folder.getFullName(), folder);
+        if (previous != null && previous != folder)
+        {
+            LOG.debug("IMAP: Replacing the handle of folder '{}'", folder.getFullName());
+            closeQuietly(previous);
+        }
+        if (folder.isOpen())
+        {
+            if (mode == Folder.READ_ONLY || folder.getMode() == Folder.READ_WRITE)
+                return folder;
+            LOG.debug("IMAP: Reopening folder '{}' in READ_WRITE mode", folder.getFullName());
+            folder.close(false);
+        }
+        closeLeastRecentlyUsed();
+        folder.open(mode);
+        return folder;
+    }
+
+    /**
+     * Closes the folder if it is open, keeping the handle for later use
+     */
+    public synchronized void close(String path, boolean expunge) throws MessagingException
+    {
+        Folder folder = folders.get(normalize(path));
+        if (folder != null && folder.isOpen())
+            folder.close(expunge);
+    }
+
+    /**
+     * Closes and drops the handles of the path and all of its sub folders, e.g. after the folder was deleted or renamed
+     */
+    public synchronized void forget(String path)
+    {
+        String fullName = normalize(path);
+        for (Iterator<Map.Entry<String, Folder>> it = folders.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, Folder> entry = it.next();
+            if (entry.getKey().equals(fullName) || entry.getKey().startsWith(fullName + SEPARATOR))
+            {
+                closeQuietly(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes every open folder and drops all handles
+     */
+    public synchronized void closeAll()
+    {
+        for (Folder folder : folders.values())
+            closeQuietly(folder);
+        folders.clear();
+    }
+
+    private void closeLeastRecentlyUsed()
+    {
+        List<Folder> open = new ArrayList<>();
+        for (Folder folder : folders.values())
+            if (folder.isOpen())
+                open.add(folder);
+        // folders are iterated from least to most recently used
+        for (int i = 0; i <= open.size() - maxOpenFolders; i++)
+            closeQuietly(open.get(i));
+    }
+
+    private void closeQuietly(Folder folder)
+    {
+        if (!folder.isOpen())
+            return;
+        try
+        {
+            folder.close(false);
+        }
+        catch (MessagingException | IllegalStateException e)
+        {
+            LOG.warn("IMAP: Failed to close folder '{}': {}", folder.getFullName(), e.getMessage());
+        }
+    }
+
+    private static String normalize(String path)
+    {
+        String fullName = path == null ? "" : path;
+        while (fullName.endsWith(String.valueOf(SEPARATOR)))
+            fullName = fullName.substring(0, fullName.length() - 1);
+        return fullName;
+    }
+}
@@ -0,0 +1,206 @@
+package org.alfresco.email.connection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import jakarta.mail.Folder;
+import jakarta.mail.FolderNotFoundException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+
+/**
+ * Snapshot of the folder hierarchy of an IMAP connection, kept as a trie with one hash map of children per folder.
+ * The snapshot is read with a single <code>LIST "" "*"</code> and then kept up to date by the DSL operations that
+ * create, rename or delete folders, so existence checks and listings need no network trip. Folders changed outside of
+ * this connection (e.g. through REST) are only seen after {@link #refresh()} or once the snapshot is older than
+ * <code>timeToLive</code> milliseconds.
+ */
+public class ImapFolderTree
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    private final Store store;
+    private final long timeToLive;
+    private Node root;
+    private char separator = ImapFolderHandles.SEPARATOR;
+    private long loadedAt;
+
+    public ImapFolderTree(Store store, long timeToLive)
+    {
+        this.store = store;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the names of the sub folders of the folder, or an empty list if the folder does not exist
+     */
+    public synchronized List<String> getChildren(String path) throws MessagingException
+    {
+        Node node = find(path);
+        return node == null ? new ArrayList<>() : new ArrayList<>(node.children.keySet());
+    }
+
+    /**
+     * @return true if the folder has a sub folder with the given name
+     */
+    public synchronized boolean hasChild(String path, String name) throws MessagingException
+    {
+        Node node = find(path);
+        return node != null && node.children.containsKey(name);
+    }
+
+    /**
+     * Lists the sub folders of the folder on the server with one <code>LIST</code>, so folders created or deleted
+     * outside of this connection are seen at once. A loaded snapshot takes over the listed children. Returns an empty
+     * list if the folder does not exist.
+     */
+    public synchronized List<String> listChildren(String path) throws MessagingException
+    {
+        String fullName = normalize(path);
+        Folder folder = fullName.isEmpty() ? store.getDefaultFolder() : store.getFolder(fullName);
+        List<String> names = new ArrayList<>();
+        try
+        {
+            for (Folder child : folder.list())
+                names.add(child.getName());
+        }
+        catch (FolderNotFoundException e)
+        {
+            removed(fullName);
+            return names;
+        }
+
+        Node node = root == null ? null : getNode(fullName);
+        if (node != null)
+        {
+            Map<String, Node> children = new LinkedHashMap<>();
+            for (String name : names)
+                children.put(name, node.children.getOrDefault(name, new Node()));
+            node.children.clear();
+            node.children.putAll(children);
+        }
+        return names;
+    }
+
+    /**
+     * Reads the whole hierarchy again with one LIST command
+     */
+    public synchronized void refresh() throws MessagingException
+    {
+        Node newRoot = new Node();
+        Folder[] folders = store.getDefaultFolder().list("*");
+        if (folders.length > 0)
+            separator = folders[0].getSeparator();
+        for (Folder folder : folders)
+            add(newRoot, folder.getFullName());
+        root = newRoot;
+        loadedAt = System.currentTimeMillis();
+        LOG.debug("IMAP: Loaded folder tree with {} folders", folders.length);
+    }
+
+    /**
+     * Forces a reload on next use, e.g. after many folders were changed at once
+     */
+    public synchronized void invalidate()
+    {
+        root = null;
+    }
+
+    public synchronized void added(String path)
+    {
+        if (root != null)
+            add(root, path);
+    }
+
+    public synchronized void removed(String path)
+    {
+        if (root == null)
+            return;
+        Node parent = getNode(parentOf(path));
+        if (parent != null)
+            parent.children.remove(nameOf(path));
+    }
+
+    public synchronized void renamed(String oldPath, String newPath)
+    {
+        if (root == null)
+            return;
+        Node parent = getNode(parentOf(oldPath));
+        Node node = parent == null ? null : parent.children.remove(nameOf(oldPath));
+        if (node == null)
+        {
+            add(root, newPath);
+            return;
+        }
+        add(root, parentOf(newPath));
+        getNode(parentOf(newPath)).children.put(nameOf(newPath), node);
+    }
+
+    private Node find(String path) throws MessagingException
+    {
+        if (root == null || System.currentTimeMillis() - loadedAt > timeToLive)
+            refresh();
+        return getNode(normalize(path));
+    }
+
+    private Node getNode(String path)
+    {
+        Node node = root;
+        if (path.isEmpty())
+            return node;
+        for (String name : split(path))
+        {
+            node = node.children.get(name);
+            if (node == null)
+                return null;
+        }
+        return node;
+    }
+
+    private void add(Node from, String path)
+    {
+        String fullName = normalize(path);
+        if (fullName.isEmpty())
+            return;
+        Node node = from;
+        for (String name : split(fullName))
+            node = node.children.computeIfAbsent(name, n -> new Node());
+    }
+
+    private String[] split(String path)
+    {
+        return path.split(Pattern.quote(String.valueOf(separator)));
+    }
+
+    private String parentOf(String path)
+    {
+        String fullName = normalize(path);
+        int index = fullName.lastIndexOf(separator);
+        return index < 0 ? "" : fullName.substring(0, index);
+    }
+
+    private String nameOf(String path)
+    {
+        String fullName = normalize(path);
+        return fullName.substring(fullName.lastIndexOf(separator) + 1);
+    }
+
+    private String normalize(String path)
+    {
+        String fullName = path == null ? "" : path;
+        while (fullName.endsWith(String.valueOf(separator)))
+            fullName = fullName.substring(0, fullName.length() - 1);
+        return fullName;
+    }
+
+    private static class Node
+    {
+        private final Map<String, Node> children = new LinkedHashMap<>();
+    }
+}
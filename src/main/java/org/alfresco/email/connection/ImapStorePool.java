@@ -0,0 +1,344 @@
+package org.alfresco.email.connection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+
+import org.alfresco.email.EmailProperties;
+import org.alfresco.email.metrics.CommandListener;
+import org.alfresco.email.metrics.CommandTimer;
+import org.alfresco.email.metrics.ProtocolMetrics;
+import org.alfresco.utility.LogFactory;
+import org.alfresco.utility.model.UserModel;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps authenticated IMAP {@link Store}s alive between {@link org.alfresco.email.ImapWrapper} instances.
+ * Stores are keyed by host, port, user credentials and {@link ImapConnectionOptions}, validated with a NOOP when they are borrowed
+ * and closed once they stay idle longer than <code>imap.pool.idleTimeoutMs</code>.
+ * With <code>imap.pool.enabled=false</code> every borrow opens a new connection and every release closes it.
+ */
+@Service
+public class ImapStorePool implements DisposableBean
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    @Autowired
+    EmailProperties emailProperties;
+
+    @Autowired
+    ProtocolMetrics protocolMetrics;
+
+    private final Map<Key, Deque<IdleStore>> idleStores = new HashMap<>();
+    private final Map<Store, Key> borrowedStores = new IdentityHashMap<>();
+    private final Map<Store, CommandTimer> timers = new IdentityHashMap<>();
+    private final Map<Store, List<CommandListener>> listeners = new IdentityHashMap<>();
+
+    /**
+     * Returns an authenticated store for the user, reusing an idle connection when one is available.
+     * The connection options are read from the <code>imap.ssl.*</code> and <code>imap.compress.*</code> properties.
+     *
+     * @throws MessagingException if a new connection cannot be opened or the user cannot log in
+     */
+    public Store borrow(String host, int port, UserModel userModel) throws MessagingException
+    {
+        return borrow(host, port, userModel, ImapConnectionOptions.from(emailProperties));
+    }
+
+    /**
+     * Returns an authenticated store for the user with the given connection options, see {@link #borrow(String, int, UserModel)}
+     */
+    public Store borrow(String host, int port, UserModel userModel, ImapConnectionOptions options) throws MessagingException
+    {
+        Key key = new Key(host, port, userModel.getUsername(), userModel.getPassword(), options);
+        Store store = takeIdle(key);
+        if (store == null)
+            store = connect(key);
+
+        synchronized (this)
+        {
+            borrowedStores.put(store, key);
+        }
+        return store;
+    }
+
+    /**
+     * Returns another authenticated store of the same user and server as the borrowed store, e.g. to work on several
+     * folders in parallel
+     *
+     * @throws MessagingException if a new connection cannot be opened
+     */
+    public Store borrowAnother(Store store) throws MessagingException
+    {
+        Key key;
+        synchronized (this)
+        {
+            key = borrowedStores.get(store);
+        }
+        if (key == null)
+            throw new MessagingException("The IMAP store was not borrowed from the pool");
+
+        Store another = takeIdle(key);
+        if (another == null)
+            another = connect(key);
+
+        synchronized (this)
+        {
+            borrowedStores.put(another, key);
+            // the commands sent for the borrower on its other connections count as its own
+            List<CommandListener> inherited = listeners.get(store);
+            if (inherited != null)
+                for (CommandListener listener : inherited)
+                    addListener(another, listener);
+        }
+        return another;
+    }
+
+    /**
+     * Sends the commands of the borrowed store, and of the stores later borrowed from it with {@link #borrowAnother(Store)},
+     * to the listener until it is removed or the store is released
+     *
+     * @return false if the commands of the store are not timed, see <code>email.metrics.enabled</code>
+     */
+    public synchronized boolean addListener(Store store, CommandListener listener)
+    {
+        CommandTimer timer = timers.get(store);
+        if (timer == null || !borrowedStores.containsKey(store))
+            return false;
+        timer.addListener(listener);
+        listeners.computeIfAbsent(store, s -> new ArrayList<>()).add(listener);
+        return true;
+    }
+
+    /**
+     * Stops sending the commands of the store and of the stores borrowed from it to the listener
+     */
+    public synchronized void removeListener(Store store, CommandListener listener)
+    {
+        for (Map.Entry<Store, List<CommandListener>> entry : listeners.entrySet())
+            if (entry.getValue().remove(listener))
+                timers.get(entry.getKey()).removeListener(listener);
+        listeners.values().removeIf(List::isEmpty);
+    }
+
+    /**
+     * Gives the store back to the pool. The connection stays open so the next borrow skips connect and LOGIN.
+     * Stores that were not borrowed from this pool are just closed.
+     */
+    public void release(Store store)
+    {
+        Key key;
+        synchronized (this)
+        {
+            key = borrowedStores.remove(store);
+            removeListeners(store);
+        }
+        if (key == null || !emailProperties.isImapPoolEnabled() || !store.isConnected())
+        {
+            closeQuietly(store);
+            return;
+        }
+
+        Store evicted = null;
+        synchronized (this)
+        {
+            Deque<IdleStore> stores = idleStores.computeIfAbsent(key, k -> new ArrayDeque<>());
+            stores.push(new IdleStore(store, System.currentTimeMillis()));
+            if (stores.size() > emailProperties.getImapPoolMaxIdlePerUser())
+                evicted = stores.removeLast().store;
+        }
+        closeQuietly(evicted);
+        evictIdle();
+    }
+
+    /**
+     * Closes the store instead of returning it to the pool, e.g. after the connection has been broken
+     */
+    public void invalidate(Store store)
+    {
+        synchronized (this)
+        {
+            borrowedStores.remove(store);
+            removeListeners(store);
+        }
+        closeQuietly(store);
+    }
+
+    /**
+     * Closes every idle store that was not used for longer than the configured idle timeout
+     */
+    public void evictIdle()
+    {
+        long oldest = System.currentTimeMillis() - emailProperties.getImapPoolIdleTimeout();
+        Deque<Store> evicted = new ArrayDeque<>();
+        synchronized (this)
+        {
+            for (Iterator<Deque<IdleStore>> it = idleStores.values().iterator(); it.hasNext();)
+            {
+                Deque<IdleStore> stores = it.next();
+                while (!stores.isEmpty() && stores.peekLast().idleSince < oldest)
+                    evicted.add(stores.removeLast().store);
+                if (stores.isEmpty())
+                    it.remove();
+            }
+        }
+        for (Store store : evicted)
+            closeQuietly(store);
+    }
+
+    @Override
+    public void destroy()
+    {
+        Deque<Store> stores = new ArrayDeque<>();
+        synchronized (this)
+        {
+            for (Deque<IdleStore> idle : idleStores.values())
+                for (IdleStore idleStore : idle)
+                    stores.add(idleStore.store);
+            idleStores.clear();
+        }
+        for (Store store : stores)
+            closeQuietly(store);
+    }
+
+    private Store takeIdle(Key key)
+    {
+        if (!emailProperties.isImapPoolEnabled())
+            return null;
+
+        evictIdle();
+        while (true)
+        {
+            IdleStore idleStore;
+            synchronized (this)
+            {
+                Deque<IdleStore> stores = idleStores.get(key);
+                if (stores == null || stores.isEmpty())
+                    return null;
+                idleStore = stores.pop();
+            }
+            // IMAPStore.isConnected() sends a NOOP, so a connection dropped by the server is detected here
+            if (idleStore.store.isConnected())
+            {
+                LOG.debug("Reusing pooled IMAP connection for {}", key);
+                return idleStore.store;
+            }
+            closeQuietly(idleStore.store);
+        }
+    }
+
+    private Store connect(Key key) throws MessagingException
+    {
+        Properties prop = key.options.toSessionProperties();
+        prop.put("host", key.host);
+        prop.put("port", key.port);
+
+        Session session = Session.getInstance(prop);
+        CommandTimer timer = protocolMetrics.instrumentImap(session);
+        Store store = session.getStore(key.options.getProtocol());
+        store.connect(key.host, key.port, key.username, key.password);
+        if (timer != null)
+        {
+            synchronized (this)
+            {
+                timers.put(store, timer);
+            }
+        }
+        LOG.debug("Opened new IMAP connection for {}", key);
+        return store;
+    }
+
+    private void closeQuietly(Store store)
+    {
+        if (store == null)
+            return;
+        synchronized (this)
+        {
+            timers.remove(store);
+        }
+        try
+        {
+            store.close();
+        }
+        catch (MessagingException e)
+        {
+            LOG.warn("IMAP: Failed to close pooled connection: {}", e.getMessage());
+        }
+    }
+
+    private void removeListeners(Store store)
+    {
+        List<CommandListener> removed = listeners.remove(store);
+        if (removed != null)
+            for (CommandListener listener : removed)
+                timers.get(store).removeListener(listener);
+    }
+
+    private static class IdleStore
+    {
+        private final Store store;
+        private final long idleSince;
+
+        private IdleStore(Store store, long idleSince)
+        {
+            this.store = store;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private static final class Key
+    {
+        private final String host;
+        private final int port;
+        private final String username;
+        private final String password;
+        private final ImapConnectionOptions options;
+
+        private Key(String host, int port, String username, String password, ImapConnectionOptions options)
+        {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+            this.password = password;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return port == other.port && Objects.equals(host, other.host) && Objects.equals(username, other.username)
+                    && Objects.equals(password, other.password) && Objects.equals(options, other.options);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(host, port, username, password, options);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%s:%d (%s)", username, host, port, options);
+        }
+    }
+}
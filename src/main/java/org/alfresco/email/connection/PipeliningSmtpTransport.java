@@ -0,0 +1,273 @@
+package org.alfresco.email.connection;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.alfresco.email.metrics.CommandTimer;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * SMTP transport that can send the envelope of a message as one ESMTP PIPELINING group (RFC 2920): MAIL FROM and all
+ * RCPT TO commands are written before any response is read, so a message costs one round trip for the envelope, one
+ * for DATA and one for the content instead of one per command. The sessions of the {@link SmtpTransportPool} use
+ * it instead of the default transport.
+ * <p>
+ * If the session has a {@link CommandTimer}, every command is timed from sending it to its final reply: the replies
+ * are matched to the commands in the order they were sent, so pipelined commands are timed as well, and the lines
+ * sent after an intermediate 3xx reply (the content after DATA, the AUTH exchange) belong to the pending command.
+ */
+public class PipeliningSmtpTransport extends SMTPTransport
+{
+    /** headers Jakarta Mail does not send either */
+    private static final String[] IGNORED_HEADERS = { "Bcc", "Content-Length" };
+
+    private final CommandTimer timer;
+    private SmtpTransportPool pool;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private boolean continuation;
+    /** time the last message waited for a connection slot of the pool, -1 while it waits or if the wait failed */
+    private long sendWaitNanos;
+
+    public PipeliningSmtpTransport(Session session, URLName urlname)
+    {
+        super(session, urlname);
+        timer = CommandTimer.of(session);
+    }
+
+    /**
+     * Every message sent on the transport takes a connection slot of the pool while it is sent, see
+     * {@link SmtpTransportPool#beginSend(jakarta.mail.Transport)}
+     */
+    void usePool(SmtpTransportPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the server advertised PIPELINING in its EHLO response
+     */
+    public boolean supportsPipelining()
+    {
+        return supportsExtension("PIPELINING");
+    }
+
+    /**
+     * @return how long the last message waited for a connection slot of the pool before its first command was sent,
+     *         or -1 if it is still waiting or gave up, see {@link SmtpTransportPool#beginSend(jakarta.mail.Transport)}
+     */
+    public long getSendWaitNanos()
+    {
+        return sendWaitNanos;
+    }
+
+    /**
+     * Sends the message with a pipelined envelope. Recipients the server rejects are skipped, as with
+     * <code>mail.smtp.sendpartial</code> that the {@link SmtpTransportPool} sets for {@link #sendMessage}; if the transaction fails it is reset, so the transport can send the next message.
+     *
+     * @return the recipients the server rejected
+     * @throws SendFailedException if the server rejected the sender or all recipients
+     * @throws MessagingException if the content was rejected or the connection failed
+     */
+    public Address[] sendPipelined(MimeMessage message, Address[] recipients) throws MessagingException
+    {
+        beginSend();
+        try
+        {
+            return pipeline(message, recipients);
+        }
+        finally
+        {
+            endSend();
+        }
+    }
+
+    @Override
+    public void sendMessage(Message message, Address[] addresses) throws MessagingException
+    {
+        beginSend();
+        try
+        {
+            super.sendMessage(message, addresses);
+        }
+        finally
+        {
+            endSend();
+        }
+    }
+
+    private synchronized Address[] pipeline(MimeMessage message, Address[] recipients) throws MessagingException
+    {
+        checkConnected();
+        if (recipients == null || recipients.length == 0)
+            throw new SendFailedException("No recipient addresses");
+        Address[] from = message.getFrom();
+        if (from == null || from.length == 0)
+            throw new MessagingException("The message has no sender");
+
+        sendCommand("MAIL FROM:<" + ((InternetAddress) from[0]).getAddress() + ">");
+        for (Address recipient : recipients)
+            sendCommand("RCPT TO:<" + ((InternetAddress) recipient).getAddress() + ">");
+
+        int mailFrom = readServerResponse();
+        String mailFromResponse = getLastServerResponse();
+        List<Address> rejected = new ArrayList<>();
+        String rcptToResponse = null;
+        for (Address recipient : recipients)
+        {
+            int rcptTo = readServerResponse();
+            if (rcptTo != 250 && rcptTo != 251)
+            {
+                rejected.add(recipient);
+                rcptToResponse = getLastServerResponse();
+            }
+        }
+
+        if (mailFrom != 250)
+        {
+            reset();
+            throw new SendFailedException("Sender rejected: " + mailFromResponse);
+        }
+        if (rejected.size() == recipients.length)
+        {
+            reset();
+            throw new SendFailedException("All recipients rejected: " + rcptToResponse, null, null, null, rejected.toArray(new Address[0]));
+        }
+
+        try
+        {
+            message.writeTo(data(), IGNORED_HEADERS);
+            finishData();
+        }
+        catch (IOException e)
+        {
+            // the server may have read part of the content, the connection cannot be used any more
+            closeQuietly();
+            throw new MessagingException("IOException while sending message", e);
+        }
+        catch (MessagingException e)
+        {
+            // a rejected DATA or content was already reset by the transport
+            if (e.getNextException() instanceof IOException)
+                closeQuietly();
+            throw e;
+        }
+        return rejected.toArray(new Address[0]);
+    }
+
+    @Override
+    protected void sendCommand(String cmd) throws MessagingException
+    {
+        if (timer != null && !continuation)
+            pending.addLast(new Pending(commandName(cmd), System.nanoTime()));
+        super.sendCommand(cmd);
+    }
+
+    @Override
+    protected int readServerResponse() throws MessagingException
+    {
+        int code = super.readServerResponse();
+        if (timer == null)
+            return code;
+        // the greeting has no command
+        Pending command = pending.peekFirst();
+        if (command == null)
+            return code;
+        continuation = code >= 300 && code < 400;
+        if (!continuation)
+        {
+            pending.removeFirst();
+            timer.completed(command.command, System.nanoTime() - command.startedAt, code < 200 || code >= 400);
+        }
+        return code;
+    }
+
+    @Override
+    public synchronized void close() throws MessagingException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            // a command whose reply was never read, e.g. QUIT
+            pending.clear();
+            continuation = false;
+        }
+    }
+
+    /**
+     * @return e.g. <code>MAIL FROM</code> for <code>MAIL FROM:&lt;a@b.c&gt;</code>, <code>EHLO</code> for <code>EHLO host</code>
+     */
+    private static String commandName(String cmd)
+    {
+        String upper = cmd.toUpperCase(Locale.ROOT);
+        if (upper.startsWith("MAIL FROM"))
+            return "MAIL FROM";
+        if (upper.startsWith("RCPT TO"))
+            return "RCPT TO";
+        int space = upper.indexOf(' ');
+        return space < 0 ? upper : upper.substring(0, space);
+    }
+
+    private void beginSend() throws MessagingException
+    {
+        long started = System.nanoTime();
+        sendWaitNanos = -1;
+        if (pool != null)
+            pool.beginSend(this);
+        sendWaitNanos = System.nanoTime() - started;
+    }
+
+    private void endSend()
+    {
+        if (pool != null)
+            pool.endSend(this);
+    }
+
+    private void reset() throws MessagingException
+    {
+        simpleCommand("RSET");
+    }
+
+    private void closeQuietly()
+    {
+        try
+        {
+            close();
+        }
+        catch (MessagingException e)
+        {
+            // the connection is closed anyway
+        }
+    }
+
+    /**
+     * A command waiting for its final reply
+     */
+    private static class Pending
+    {
+        private final String command;
+        private final long startedAt;
+
+        private Pending(String command, long startedAt)
+        {
+            this.command = command;
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.alfresco.email.connection;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.mail.MessagingException;
+
+import org.alfresco.email.EmailProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs the asynchronous sends of {@link org.alfresco.email.dsl.smtp.ComposeMessage#sendMailAsync()} on
+ * <code>smtp.async.threads</code> threads, each send on a transport borrowed from the {@link SmtpTransportPool}.
+ * At most <code>smtp.async.maxInFlight</code> sends are queued or running; further submits block until one completes,
+ * so a test seeding thousands of messages cannot run ahead of the server.
+ */
+@Service
+public class SmtpSendExecutor implements InitializingBean, DisposableBean
+{
+    @Autowired
+    EmailProperties emailProperties;
+
+    private ExecutorService executor;
+    private Semaphore inFlight;
+
+    /**
+     * One send, run on a thread of the executor
+     */
+    public interface SendTask
+    {
+        void run() throws Exception;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory threadFactory = runnable ->
+        {
+            Thread thread = new Thread(runnable, "smtp-send-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = Executors.newFixedThreadPool(emailProperties.getSmtpAsyncThreads(), threadFactory);
+        inFlight = new Semaphore(emailProperties.getSmtpAsyncMaxInFlight());
+    }
+
+    /**
+     * Queues the send, blocking while <code>smtp.async.maxInFlight</code> sends are in flight
+     *
+     * @return completes when the task has run, exceptionally with the exception of the task
+     * @throws MessagingException if the caller was interrupted while waiting
+     */
+    public CompletableFuture<Void> submit(SendTask task) throws MessagingException
+    {
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an asynchronous SMTP send to complete", e);
+        }
+
+        try
+        {
+            return CompletableFuture.runAsync(() ->
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (Exception e)
+                {
+                    throw new CompletionException(e);
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }, executor);
+        }
+        catch (RejectedExecutionException e)
+        {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return sends queued or running
+     */
+    public int getInFlight()
+    {
+        return emailProperties.getSmtpAsyncMaxInFlight() - inFlight.availablePermits();
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,490 @@
+package org.alfresco.email.connection;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import javax.net.SocketFactory;
+
+import jakarta.mail.Authenticator;
+import jakarta.mail.MessagingException;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Provider;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+import org.alfresco.email.EmailProperties;
+import org.alfresco.email.metrics.ProtocolMetrics;
+import org.alfresco.utility.LogFactory;
+import org.alfresco.utility.model.UserModel;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps connected SMTP {@link Transport}s alive between messages and {@link org.alfresco.email.SmtpWrapper} instances,
+ * so a message does not pay for connect, EHLO, STARTTLS and AUTH.
+ * Transports are keyed by host, port, user credentials and TLS mode, and reset with an RSET when they are borrowed,
+ * which also checks the connection is still alive. At most <code>smtp.pool.maxPerHost</code> connections to one server
+ * are idle in the pool or sending a message: a transport a wrapper holds between messages does not count, so a borrow
+ * never waits, but a send waits up to <code>smtp.pool.borrowTimeoutMs</code> for another send to finish (or closes an
+ * idle connection to make room). A released transport that finds all slots taken is closed instead of pooled.
+ * With <code>smtp.pool.enabled=false</code> every borrow opens a new connection and every release closes it.
+ * <p>
+ * The transports are {@link PipeliningSmtpTransport}s on sockets with TCP_NODELAY, so pipelined commands are not held
+ * back by Nagle's algorithm until the previous command is acknowledged.
+ */
+@Service
+public class SmtpTransportPool implements DisposableBean
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    @Autowired
+    EmailProperties emailProperties;
+
+    @Autowired
+    ProtocolMetrics protocolMetrics;
+
+    private static final Provider PIPELINING_PROVIDER = new Provider(Provider.Type.TRANSPORT, "smtp",
+            PipeliningSmtpTransport.class.getName(), "Alfresco", null);
+
+    private final Map<Key, Deque<IdleTransport>> idleTransports = new HashMap<>();
+    private final Map<Transport, Borrowed> borrowedTransports = new IdentityHashMap<>();
+    /** idle and sending transports per server */
+    private final Map<String, Integer> slotsPerHost = new HashMap<>();
+
+    /**
+     * Returns a connected transport for the user, reusing an idle connection when one is available
+     *
+     * @param startTls upgrade the connection with STARTTLS
+     * @param authenticate log in with the credentials of the user, otherwise send anonymously
+     * @throws MessagingException if a new connection cannot be opened or the user cannot log in
+     */
+    public Transport borrow(String host, int port, UserModel userModel, boolean startTls, boolean authenticate) throws MessagingException
+    {
+        Key key = new Key(host, port, userModel.getUsername(), userModel.getPassword(), startTls, authenticate);
+        while (true)
+        {
+            IdleTransport idle;
+            synchronized (this)
+            {
+                idle = takeIdle(key);
+                if (idle != null)
+                    free(key);
+            }
+            if (idle == null)
+                break;
+
+            // with mail.smtp.userset the health check is an RSET, so the connection starts a clean transaction
+            if (idle.transport.isConnected())
+            {
+                LOG.debug("Reusing pooled SMTP connection for {}", key);
+                return lend(idle.transport, idle.session, key);
+            }
+            closeQuietly(idle.transport);
+        }
+
+        Session session = newSession(key);
+        Transport transport = session.getTransport("smtp");
+        if (transport instanceof PipeliningSmtpTransport)
+            ((PipeliningSmtpTransport) transport).usePool(this);
+        transport.connect(key.username, key.password);
+        LOG.debug("Opened new SMTP connection for {}", key);
+        return lend(transport, session, key);
+    }
+
+    /**
+     * @return the session of a borrowed transport, or null if it was not borrowed from this pool
+     */
+    public synchronized Session getSession(Transport transport)
+    {
+        Borrowed borrowed = borrowedTransports.get(transport);
+        return borrowed == null ? null : borrowed.session;
+    }
+
+    /**
+     * Gives the transport back to the pool. The connection stays open so the next borrow skips connect, EHLO and AUTH,
+     * unless <code>smtp.pool.maxPerHost</code> connections to the server are already idle or sending.
+     * Transports that were not borrowed from this pool are just closed.
+     */
+    public void release(Transport transport)
+    {
+        Borrowed borrowed;
+        boolean pooled = false;
+        synchronized (this)
+        {
+            borrowed = borrowedTransports.remove(transport);
+            if (borrowed != null)
+            {
+                freeSendSlot(borrowed);
+                if (emailProperties.isSmtpPoolEnabled() && reserve(borrowed.key))
+                {
+                    idleTransports.computeIfAbsent(borrowed.key, k -> new ArrayDeque<>())
+                            .push(new IdleTransport(transport, borrowed.session, System.currentTimeMillis()));
+                    pooled = true;
+                }
+            }
+        }
+        if (!pooled)
+            closeQuietly(transport);
+        else
+            evictIdle();
+    }
+
+    /**
+     * Takes a connection slot of the server for a message sent on a borrowed transport. If all slots are taken, the
+     * longest idle connection to the server is closed, otherwise the send waits for another one to finish.
+     *
+     * @throws MessagingException if no send finished within <code>smtp.pool.borrowTimeoutMs</code>
+     */
+    void beginSend(Transport transport) throws MessagingException
+    {
+        long deadline = System.currentTimeMillis() + emailProperties.getSmtpPoolBorrowTimeout();
+        while (true)
+        {
+            Borrowed borrowed;
+            IdleTransport evicted;
+            synchronized (this)
+            {
+                borrowed = borrowedTransports.get(transport);
+                if (borrowed == null || borrowed.sending)
+                    return;
+                if (reserve(borrowed.key))
+                {
+                    borrowed.sending = true;
+                    return;
+                }
+                evicted = takeIdleOfServer(borrowed.key);
+                if (evicted == null)
+                {
+                    waitForSend(borrowed.key, deadline);
+                    continue;
+                }
+            }
+            // the slot of the idle connection passes to this send on the next round
+            closeQuietly(evicted.transport);
+            free(borrowed.key);
+        }
+    }
+
+    /**
+     * Gives the connection slot taken by {@link #beginSend(Transport)} back
+     */
+    synchronized void endSend(Transport transport)
+    {
+        Borrowed borrowed = borrowedTransports.get(transport);
+        if (borrowed != null)
+            freeSendSlot(borrowed);
+    }
+
+    /**
+     * Closes the transport instead of returning it to the pool, e.g. after the connection has been broken
+     */
+    public void invalidate(Transport transport)
+    {
+        synchronized (this)
+        {
+            Borrowed borrowed = borrowedTransports.remove(transport);
+            if (borrowed != null)
+                freeSendSlot(borrowed);
+        }
+        closeQuietly(transport);
+    }
+
+    /**
+     * Closes every idle transport that was not used for longer than <code>smtp.pool.idleTimeoutMs</code>
+     */
+    public void evictIdle()
+    {
+        long oldest = System.currentTimeMillis() - emailProperties.getSmtpPoolIdleTimeout();
+        Map<Transport, Key> evicted = new IdentityHashMap<>();
+        synchronized (this)
+        {
+            for (Iterator<Map.Entry<Key, Deque<IdleTransport>>> it = idleTransports.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry<Key, Deque<IdleTransport>> entry = it.next();
+                Deque<IdleTransport> transports = entry.getValue();
+                while (!transports.isEmpty() && transports.peekLast().idleSince < oldest)
+                    evicted.put(transports.removeLast().transport, entry.getKey());
+                if (transports.isEmpty())
+                    it.remove();
+            }
+        }
+        for (Map.Entry<Transport, Key> entry : evicted.entrySet())
+        {
+            closeQuietly(entry.getKey());
+            free(entry.getValue());
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        Map<Transport, Key> transports = new IdentityHashMap<>();
+        synchronized (this)
+        {
+            for (Map.Entry<Key, Deque<IdleTransport>> entry : idleTransports.entrySet())
+                for (IdleTransport idle : entry.getValue())
+                    transports.put(idle.transport, entry.getKey());
+            idleTransports.clear();
+        }
+        for (Map.Entry<Transport, Key> entry : transports.entrySet())
+        {
+            closeQuietly(entry.getKey());
+            free(entry.getValue());
+        }
+    }
+
+    private Session newSession(Key key) throws MessagingException
+    {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", key.host);
+        props.put("mail.smtp.port", key.port);
+        props.put("mail.smtp.userset", "true");
+        // a rejected recipient does not stop the message, as with PipeliningSmtpTransport.sendPipelined
+        props.put("mail.smtp.sendpartial", "true");
+        props.put("mail.smtp.socketFactory", NoDelaySocketFactory.INSTANCE);
+        if (key.startTls)
+            props.put("mail.smtp.starttls.enable", "true");
+
+        Session session;
+        if (key.authenticate)
+        {
+            props.put("mail.smtp.auth", "true");
+            session = Session.getInstance(props, new Authenticator()
+            {
+                protected PasswordAuthentication getPasswordAuthentication()
+                {
+                    return new PasswordAuthentication(key.username, key.password);
+                }
+            });
+        }
+        else
+            session = Session.getInstance(props);
+        session.setProvider(PIPELINING_PROVIDER);
+        protocolMetrics.instrumentSmtp(session);
+        return session;
+    }
+
+    private synchronized Transport lend(Transport transport, Session session, Key key)
+    {
+        borrowedTransports.put(transport, new Borrowed(session, key));
+        return transport;
+    }
+
+    private IdleTransport takeIdle(Key key)
+    {
+        if (!emailProperties.isSmtpPoolEnabled())
+            return null;
+        Deque<IdleTransport> transports = idleTransports.get(key);
+        if (transports == null || transports.isEmpty())
+            return null;
+        return transports.pop();
+    }
+
+    /**
+     * @return the longest idle transport of any user on the same server, its connection slot passes to the caller
+     */
+    private IdleTransport takeIdleOfServer(Key key)
+    {
+        IdleTransport oldest = null;
+        Deque<IdleTransport> oldestOwner = null;
+        for (Map.Entry<Key, Deque<IdleTransport>> entry : idleTransports.entrySet())
+        {
+            IdleTransport last = entry.getValue().peekLast();
+            if (last != null && entry.getKey().server.equals(key.server) && (oldest == null || last.idleSince < oldest.idleSince))
+            {
+                oldest = last;
+                oldestOwner = entry.getValue();
+            }
+        }
+        if (oldest == null)
+            return null;
+        oldestOwner.removeLast();
+        return oldest;
+    }
+
+    /**
+     * Takes one of the connection slots of the server, unless all of them are used
+     */
+    private boolean reserve(Key key)
+    {
+        int taken = slotsPerHost.getOrDefault(key.server, 0);
+        if (taken >= emailProperties.getSmtpPoolMaxPerHost())
+            return false;
+        slotsPerHost.put(key.server, taken + 1);
+        return true;
+    }
+
+    private void freeSendSlot(Borrowed borrowed)
+    {
+        if (!borrowed.sending)
+            return;
+        borrowed.sending = false;
+        free(borrowed.key);
+    }
+
+    private synchronized void free(Key key)
+    {
+        slotsPerHost.computeIfPresent(key.server, (server, taken) -> taken > 1 ? taken - 1 : null);
+        notifyAll();
+    }
+
+    private void waitForSend(Key key, long deadline) throws MessagingException
+    {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+            throw new MessagingException(String.format(
+                    "All %d SMTP connections to %s allowed by smtp.pool.maxPerHost are sending and none finished within %d ms "
+                            + "(smtp.pool.borrowTimeoutMs): raise smtp.pool.maxPerHost or check that the server still answers",
+                    emailProperties.getSmtpPoolMaxPerHost(), key.server, emailProperties.getSmtpPoolBorrowTimeout()));
+        try
+        {
+            wait(remaining);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for a send to " + key.server + " to finish", e);
+        }
+    }
+
+    private void closeQuietly(Transport transport)
+    {
+        if (transport == null)
+            return;
+        try
+        {
+            transport.close();
+        }
+        catch (MessagingException e)
+        {
+            LOG.warn("SMTP: Failed to close pooled connection: {}", e.getMessage());
+        }
+    }
+
+    private static class NoDelaySocketFactory extends SocketFactory
+    {
+        private static final NoDelaySocketFactory INSTANCE = new NoDelaySocketFactory();
+
+        @Override
+        public Socket createSocket() throws IOException
+        {
+            return noDelay(new Socket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException
+        {
+            return noDelay(new Socket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException
+        {
+            return noDelay(new Socket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException
+        {
+            return noDelay(new Socket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException
+        {
+            return noDelay(new Socket(address, port, localAddress, localPort));
+        }
+
+        private static Socket noDelay(Socket socket) throws IOException
+        {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+
+    private static class IdleTransport
+    {
+        private final Transport transport;
+        private final Session session;
+        private final long idleSince;
+
+        private IdleTransport(Transport transport, Session session, long idleSince)
+        {
+            this.transport = transport;
+            this.session = session;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private static class Borrowed
+    {
+        private final Session session;
+        private final Key key;
+        /** holds a connection slot for a message being sent */
+        private boolean sending;
+
+        private Borrowed(Session session, Key key)
+        {
+            this.session = session;
+            this.key = key;
+        }
+    }
+
+    private static final class Key
+    {
+        private final String host;
+        private final int port;
+        private final String username;
+        private final String password;
+        private final boolean startTls;
+        private final boolean authenticate;
+        /** host:port, the connection cap is per server */
+        private final String server;
+
+        private Key(String host, int port, String username, String password, boolean startTls, boolean authenticate)
+        {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+            this.password = password;
+            this.startTls = startTls;
+            this.authenticate = authenticate;
+            this.server = host + ":" + port;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return port == other.port && startTls == other.startTls && authenticate == other.authenticate && Objects.equals(host, other.host)
+                    && Objects.equals(username, other.username) && Objects.equals(password, other.password);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(host, port, username, password, startTls, authenticate);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%s (%s%s)", username, server, startTls ? "STARTTLS" : "plain", authenticate ? ", AUTH" : "");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.alfresco.email.dsl;
+
+import static org.alfresco.utility.report.log.Step.STEP;
+
+import org.alfresco.email.ImapWrapper;
+import org.alfresco.email.dsl.imap.ImapCommands;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.MessagingException;
+
+/**
+ * DSL pertaining to the flags of a set of {@link jakarta.mail.Message}s.
+ * Each operation is sent as one <code>UID STORE &lt;set&gt; +FLAGS.SILENT</code> (or <code>-FLAGS.SILENT</code>) for all
+ * messages, whatever their number, see {@link ImapCommands#storeFlags}.
+ */
+public class BulkMessageFlags
+{
+    private ImapWrapper imapWrapper;
+    private Folder folder;
+    private String uidSet;
+    private String description;
+
+    /**
+     * @param folder open folder of the messages
+     * @param uidSet UID set of the messages, e.g. <code>3:10,15</code>
+     * @param description describes the messages in the test steps
+     */
+    public BulkMessageFlags(ImapWrapper imapWrapper, Folder folder, String uidSet, String description)
+    {
+        this.imapWrapper = imapWrapper;
+        this.folder = folder;
+        this.uidSet = uidSet;
+        this.description = description;
+    }
+
+    public ImapWrapper updateFlags()
+    {
+        return imapWrapper;
+    }
+
+    public BulkMessageFlags setFlags(Flags.Flag... flagsList) throws MessagingException
+    {
+        ImapCommands.storeFlags(folder, uidSet, toFlags("Add '%s' flag to %s", flagsList), true);
+        return this;
+    }
+
+    public BulkMessageFlags removeFlags(Flags.Flag... flagsList) throws MessagingException
+    {
+        ImapCommands.storeFlags(folder, uidSet, toFlags("Remove '%s' flag from %s", flagsList), false);
+        return this;
+    }
+
+    public BulkMessageFlags setUserFlags(String... userFlags) throws MessagingException
+    {
+        Flags flags = new Flags();
+        for (String userFlag : userFlags)
+        {
+            STEP(String.format("IMAP: Add '%s' flag to %s", userFlag, description));
+            flags.add(userFlag);
+        }
+        ImapCommands.storeFlags(folder, uidSet, flags, true);
+        return this;
+    }
+
+    public BulkMessageFlags removeUserFlags(String... userFlags) throws MessagingException
+    {
+        Flags flags = new Flags();
+        for (String userFlag : userFlags)
+        {
+            STEP(String.format("IMAP: Remove '%s' flag from %s", userFlag, description));
+            flags.add(userFlag);
+        }
+        ImapCommands.storeFlags(folder, uidSet, flags, false);
+        return this;
+    }
+
+    private Flags toFlags(String step, Flags.Flag... flagsList)
+    {
+        Flags flags = new Flags();
+        for (Flags.Flag flag : flagsList)
+        {
+            STEP(String.format("IMAP: " + step, imapWrapper.withImapUtil().getMessageFlagName(flag), description));
+            flags.add(flag);
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,128 @@
+package org.alfresco.email.dsl;
+
+import static org.alfresco.utility.report.log.Step.STEP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.alfresco.email.metrics.CommandListener;
+import org.alfresco.utility.exception.TestConfigurationException;
+import org.testng.Assert;
+
+/**
+ * Counts the commands a block of DSL calls sends to the server and fails if there are more than the budget, so the
+ * cost of an operation can be pinned in a test:
+ *
+ * <pre>
+ * imapProtocol.withCommandBudget(3).run(() -&gt; imapProtocol.assertThat().containsMessages(file));
+ * </pre>
+ *
+ * The commands are timed on the connections, see {@link org.alfresco.email.metrics.CommandTimer}.
+ */
+public class CommandBudget<Protocol> implements CommandListener
+{
+    /**
+     * DSL calls to run within the budget
+     */
+    public interface Block
+    {
+        void run() throws Exception;
+    }
+
+    private final Protocol protocol;
+    private final String protocolName;
+    private final int maxCommands;
+    private final Predicate<CommandListener> attach;
+    private final Consumer<CommandListener> detach;
+    private final Map<String, AtomicInteger> commands = new ConcurrentHashMap<>();
+    private final AtomicInteger commandCount = new AtomicInteger();
+
+    /**
+     * @param attach starts sending the commands to the budget, false if the connection is not traced
+     * @param detach stops sending the commands to the budget
+     */
+    public CommandBudget(Protocol protocol, String protocolName, int maxCommands, Predicate<CommandListener> attach,
+            Consumer<CommandListener> detach)
+    {
+        this.protocol = protocol;
+        this.protocolName = protocolName;
+        this.maxCommands = maxCommands;
+        this.attach = attach;
+        this.detach = detach;
+    }
+
+    /**
+     * Runs the block and asserts it sent at most the budgeted number of commands
+     *
+     * @return the wrapper
+     * @throws TestConfigurationException if the connection is not open or its commands are not traced
+     */
+    public Protocol run(Block block) throws Exception
+    {
+        STEP(String.format("%s: Assert at most %d commands are sent", protocolName, maxCommands));
+        commands.clear();
+        commandCount.set(0);
+        if (!attach.test(this))
+            throw new TestConfigurationException(String.format(
+                    "%s: The commands cannot be counted, connect first and keep email.metrics.enabled=true", protocolName));
+        try
+        {
+            block.run();
+        }
+        finally
+        {
+            detach.accept(this);
+        }
+        Assert.assertTrue(commandCount.get() <= maxCommands,
+                String.format("%s: %d commands sent, the budget is %d: %s", protocolName, commandCount.get(), maxCommands, getBreakdown()));
+        return protocol;
+    }
+
+    /**
+     * @return the number of commands sent by the last run
+     */
+    public int getCommandCount()
+    {
+        return commandCount.get();
+    }
+
+    /**
+     * @return the number of commands sent by the last run per command name, e.g. <code>UID FETCH</code>
+     */
+    public Map<String, Integer> getCommands()
+    {
+        Map<String, Integer> counts = new TreeMap<>();
+        commands.forEach((command, count) -> counts.put(command, count.get()));
+        return counts;
+    }
+
+    @Override
+    public void commandCompleted(String command, long nanos, boolean failed)
+    {
+        commands.computeIfAbsent(command, c -> new AtomicInteger()).incrementAndGet();
+        commandCount.incrementAndGet();
+    }
+
+    /**
+     * @return e.g. <code>UID FETCH x3, SELECT x2, NOOP x1</code>, the most frequent commands first
+     */
+    private String getBreakdown()
+    {
+        List<Map.Entry<String, Integer>> counts = new ArrayList<>(getCommands().entrySet());
+        counts.sort(Map.Entry.<String, Integer> comparingByValue().reversed());
+        StringBuilder breakdown = new StringBuilder();
+        for (Map.Entry<String, Integer> count : counts)
+        {
+            if (breakdown.length() > 0)
+                breakdown.append(", ");
+            breakdown.append(count.getKey()).append(" x").append(count.getValue());
+        }
+        return breakdown.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package org.alfresco.email.dsl;
+
+import static org.alfresco.utility.report.log.Step.STEP;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.alfresco.email.metrics.CommandMetrics;
+import org.alfresco.email.metrics.CommandStatistics;
+import org.alfresco.email.metrics.ProtocolMetrics;
+
+/**
+ * DSL for the per-command latency metrics of the IMAP or SMTP connections (see {@link ProtocolMetrics}), the client
+ * side counterpart of {@link JmxUtil}
+ */
+public class MetricsUtil
+{
+    private final CommandMetrics metrics;
+
+    public MetricsUtil(CommandMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return statistics per command name, e.g. <code>UID FETCH</code> or <code>MAIL FROM</code>
+     */
+    public Map<String, CommandStatistics> getCommands()
+    {
+        return metrics.getCommands();
+    }
+
+    /**
+     * @return statistics of the command, or null if it was not sent
+     */
+    public CommandStatistics getCommand(String command)
+    {
+        return metrics.getCommand(command);
+    }
+
+    public String getJsonSnapshot()
+    {
+        return metrics.getJsonSnapshot();
+    }
+
+    public MetricsUtil writeJsonSnapshot(File file) throws Exception
+    {
+        STEP(String.format("%s: Write command metrics to '%s'", metrics.getProtocol(), file.getPath()));
+        Files.write(file.toPath(), getJsonSnapshot().getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    public MetricsUtil reset()
+    {
+        STEP(String.format("%s: Reset command metrics", metrics.getProtocol()));
+        metrics.reset();
+        return this;
+    }
+}
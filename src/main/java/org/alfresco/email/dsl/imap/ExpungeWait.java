@@ -0,0 +1,84 @@
+package org.alfresco.email.dsl.imap;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+
+import com.sun.mail.imap.IMAPFolder;
+
+/**
+ * Waits for deleted messages to disappear from an open IMAP folder.
+ * Jakarta Mail marks a {@link Message} as expunged as soon as the server sends the untagged EXPUNGE response for it,
+ * so the wait only sends NOOPs (with a growing pause) until every message is marked, and needs no call to the repository.
+ */
+public final class ExpungeWait
+{
+    private static final long FIRST_PAUSE = 50;
+    private static final long MAX_PAUSE = 1000;
+
+    private ExpungeWait()
+    {
+    }
+
+    /**
+     * Waits until all messages of every subject are expunged or the timeout expires
+     *
+     * @param folder the open folder of the messages
+     * @param messagesBySubject the deleted messages of each subject
+     * @return the subjects that could not be confirmed, including subjects without any message
+     */
+    public static Set<String> waitUntilExpunged(Folder folder, Map<String, List<Message>> messagesBySubject, long timeout) throws MessagingException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        long pause = FIRST_PAUSE;
+        while (true)
+        {
+            Set<String> pending = getPending(messagesBySubject);
+            long remaining = deadline - System.currentTimeMillis();
+            if (pending.isEmpty() || remaining <= 0 || !anyMessage(messagesBySubject, pending))
+                return pending;
+            try
+            {
+                Thread.sleep(Math.min(pause, remaining));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return pending;
+            }
+            pause = Math.min(pause * 2, MAX_PAUSE);
+            // the untagged EXPUNGE / EXISTS responses that come with the NOOP update the messages
+            ((IMAPFolder) folder).doCommand(protocol -> {
+                protocol.noop();
+                return null;
+            });
+        }
+    }
+
+    private static Set<String> getPending(Map<String, List<Message>> messagesBySubject)
+    {
+        Set<String> pending = new LinkedHashSet<>();
+        for (Map.Entry<String, List<Message>> entry : messagesBySubject.entrySet())
+        {
+            if (entry.getValue().isEmpty())
+                pending.add(entry.getKey());
+            for (Message message : entry.getValue())
+                if (!message.isExpunged())
+                    pending.add(entry.getKey());
+        }
+        return pending;
+    }
+
+    private static boolean anyMessage(Map<String, List<Message>> messagesBySubject, Set<String> subjects)
+    {
+        for (String subject : subjects)
+            if (!messagesBySubject.get(subject).isEmpty())
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,357 @@
+package org.alfresco.email.dsl.imap;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeUtility;
+
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+
+import com.sun.mail.iap.BadCommandException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.iap.ResponseHandler;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.ENVELOPE;
+import com.sun.mail.imap.protocol.FLAGS;
+import com.sun.mail.imap.protocol.FetchResponse;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.imap.protocol.IMAPResponse;
+import com.sun.mail.imap.protocol.MODSEQ;
+import com.sun.mail.imap.protocol.UID;
+import com.sun.mail.imap.protocol.UIDSet;
+
+/**
+ * Client side copy of the UIDs, subjects and flags of one IMAP folder that is brought up to date incrementally.
+ * The first sync reads all messages with one <code>UID FETCH 1:* (UID FLAGS ENVELOPE)</code>. Later syncs only read
+ * what changed:
+ * <ul>
+ * <li>new messages: <code>UID FETCH &lt;last UID + 1&gt;:* (UID FLAGS ENVELOPE)</code></li>
+ * <li>changed flags: <code>UID FETCH 1:&lt;last UID&gt; (UID FLAGS) (CHANGEDSINCE &lt;HIGHESTMODSEQ&gt;)</code> if the
+ * server supports CONDSTORE (RFC 7162), otherwise the flags of the requested UID range are read again</li>
+ * <li>expunged messages: the VANISHED responses if QRESYNC is enabled on the connection, otherwise the UID list of
+ * <code>UID SEARCH ALL</code> once an EXPUNGE response has been seen</li>
+ * </ul>
+ * Jakarta Mail only lowers the message count of a folder when the folder itself expunges, so EXPUNGE responses caused
+ * by other connections are watched with a response handler on the connection of the folder.
+ * Everything is read again when the UIDVALIDITY of the folder changes.
+ */
+public class FolderSync
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    private long uidValidity = -1;
+    private long highestModSeq = -1;
+    private boolean loaded;
+    private boolean condstore;
+    private long version;
+    private int messageCount;
+    private volatile boolean expunged;
+    private IMAPFolder attachedFolder;
+    private IMAPProtocol attachedProtocol;
+    private final ResponseHandler expungeHandler = response -> {
+        if (response instanceof IMAPResponse
+                && (((IMAPResponse) response).keyEquals("EXPUNGE") || ((IMAPResponse) response).keyEquals("VANISHED")))
+            expunged = true;
+    };
+    private final TreeMap<Long, String> subjects = new TreeMap<>();
+    private final Map<Long, Flags> flags = new HashMap<>();
+
+    /**
+     * Brings the UIDs and subjects up to date with the changes the connection has seen. Costs no round trip if no
+     * message was added or expunged; changes made by other clients are only seen after a command on the connection,
+     * see {@link #poll(Folder)}.
+     *
+     * @param folder open folder
+     */
+    public synchronized void syncMessages(Folder folder) throws MessagingException
+    {
+        IMAPFolder imapFolder = (IMAPFolder) folder;
+        attach(imapFolder);
+        if (!loaded || imapFolder.getUIDValidity() != uidValidity)
+        {
+            load(imapFolder);
+            return;
+        }
+        int count = folder.getMessageCount();
+        if (!expunged && count == messageCount)
+            return;
+
+        long lastUid = subjects.isEmpty() ? 0 : subjects.lastKey();
+        boolean added = count > messageCount;
+        messageCount = count;
+        if (expunged)
+            added = removeExpunged(imapFolder, lastUid);
+        if (added)
+            command(imapFolder, "UID FETCH " + (lastUid + 1) + ":* (UID FLAGS ENVELOPE)", response -> {
+                if (response instanceof FetchResponse)
+                    update((FetchResponse) response, lastUid, false);
+            });
+    }
+
+    /**
+     * Sends a NOOP, whose untagged responses report the messages other clients added or expunged, and then brings the
+     * UIDs and subjects up to date, see {@link #syncMessages(Folder)}
+     *
+     * @param folder open folder
+     */
+    public synchronized void poll(Folder folder) throws MessagingException
+    {
+        IMAPFolder imapFolder = (IMAPFolder) folder;
+        attach(imapFolder);
+        if (loaded)
+            imapFolder.doCommand(protocol -> {
+                protocol.noop();
+                return null;
+            });
+        syncMessages(folder);
+    }
+
+    /**
+     * Brings the UIDs, subjects and flags up to date. Without CONDSTORE only the flags of the given UID set are read.
+     *
+     * @param folder open folder
+     * @param uidSet UID set of the messages whose flags are needed, e.g. <code>1:*</code>
+     */
+    public synchronized void syncFlags(Folder folder, String uidSet) throws MessagingException
+    {
+        boolean wasLoaded = loaded;
+        syncMessages(folder);
+        if (!wasLoaded || subjects.isEmpty())
+            return;
+
+        IMAPFolder imapFolder = (IMAPFolder) folder;
+        long lastUid = subjects.lastKey();
+        if (condstore && highestModSeq > 0)
+        {
+            try
+            {
+                boolean qresync = (Boolean) imapFolder.doCommand(protocol -> protocol.isEnabled("QRESYNC"));
+                String changedSince = "(CHANGEDSINCE " + highestModSeq + (qresync ? " VANISHED)" : ")");
+                command(imapFolder, "UID FETCH 1:" + lastUid + " (UID FLAGS MODSEQ) " + changedSince, response -> {
+                    if (response instanceof FetchResponse)
+                        update((FetchResponse) response, lastUid, true);
+                    else if (response instanceof IMAPResponse && ((IMAPResponse) response).keyEquals("VANISHED"))
+                        removeVanished((IMAPResponse) response);
+                });
+                return;
+            }
+            catch (MessagingException e)
+            {
+                if (!(e.getCause() instanceof BadCommandException))
+                    throw e;
+                LOG.info("IMAP: CHANGEDSINCE was rejected by the server, comparing all flags instead");
+                condstore = false;
+            }
+        }
+
+        command(imapFolder, "UID FETCH " + uidSet + " (UID FLAGS)", response -> {
+            if (response instanceof FetchResponse)
+                update((FetchResponse) response, lastUid, false);
+        });
+    }
+
+    /**
+     * @return UID to subject of all messages, ordered by UID
+     */
+    public synchronized NavigableMap<Long, String> getSubjects()
+    {
+        return new TreeMap<>(subjects);
+    }
+
+    /**
+     * @return the flags of the message as of the last sync, or null if the message is unknown
+     */
+    public synchronized Flags getFlags(long uid)
+    {
+        Flags messageFlags = flags.get(uid);
+        return messageFlags == null ? null : new Flags(messageFlags);
+    }
+
+    /**
+     * @return a number that changes whenever messages were added or removed
+     */
+    public synchronized long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Drops the copy and stops watching the connection of the folder; the next sync reads everything again
+     */
+    public synchronized void invalidate()
+    {
+        detach();
+        clear();
+    }
+
+    /**
+     * Removes the EXPUNGE handler from the connection of the folder. Pooled connections outlive the wrapper that
+     * used them, so a handler left behind would keep this copy alive and run on every later EXPUNGE.
+     */
+    public synchronized void detach()
+    {
+        if (attachedProtocol != null)
+            attachedProtocol.removeResponseHandler(expungeHandler);
+        attachedFolder = null;
+        attachedProtocol = null;
+    }
+
+    private void clear()
+    {
+        loaded = false;
+        subjects.clear();
+        flags.clear();
+        highestModSeq = -1;
+        changed();
+    }
+
+    private void load(IMAPFolder folder) throws MessagingException
+    {
+        clear();
+        expunged = false;
+        messageCount = folder.getMessageCount();
+        uidValidity = folder.getUIDValidity();
+        condstore = ImapCommands.hasCapability(folder, "CONDSTORE");
+        if (folder.getMessageCount() > 0)
+            command(folder, "UID FETCH 1:* (UID FLAGS ENVELOPE" + (condstore ? " MODSEQ)" : ")"), response -> {
+                if (response instanceof FetchResponse)
+                    update((FetchResponse) response, 0, true);
+            });
+        if (condstore)
+            highestModSeq = Math.max(highestModSeq, folder.getHighestModSeq());
+        loaded = true;
+    }
+
+    /**
+     * Applies one FETCH response; only messages with a UID above <code>lastUid</code> may be added. The MODSEQ of the
+     * response only raises the HIGHESTMODSEQ for a full load or a CHANGEDSINCE sweep, otherwise flag changes of older
+     * messages could be skipped.
+     *
+     * @return the UID of the message, or -1 if the response has no UID
+     */
+    private long update(FetchResponse response, long lastUid, boolean trackModSeq)
+    {
+        UID uid = response.getItem(UID.class);
+        if (uid == null)
+            return -1;
+
+        ENVELOPE envelope = response.getItem(ENVELOPE.class);
+        if (envelope != null && uid.uid > lastUid && !subjects.containsKey(uid.uid))
+        {
+            subjects.put(uid.uid, decode(envelope.subject));
+            changed();
+        }
+        if (!subjects.containsKey(uid.uid))
+            return uid.uid;
+
+        FLAGS messageFlags = response.getItem(FLAGS.class);
+        if (messageFlags != null)
+            flags.put(uid.uid, messageFlags);
+        MODSEQ modSeq = response.getItem(MODSEQ.class);
+        if (modSeq != null && trackModSeq)
+            highestModSeq = Math.max(highestModSeq, modSeq.modseq);
+        return uid.uid;
+    }
+
+    /**
+     * Removes the messages that are no longer in the folder
+     *
+     * @return true if the folder has messages with a UID above <code>lastUid</code>
+     */
+    private boolean removeExpunged(IMAPFolder folder, long lastUid) throws MessagingException
+    {
+        expunged = false;
+        Set<Long> uids = new HashSet<>();
+        command(folder, "UID SEARCH ALL", response -> {
+            if (response instanceof IMAPResponse && ((IMAPResponse) response).keyEquals("SEARCH"))
+            {
+                long uid;
+                while ((uid = response.readLong()) != -1)
+                    uids.add(uid);
+            }
+        });
+        if (subjects.keySet().retainAll(uids))
+            changed();
+        flags.keySet().retainAll(uids);
+        for (long uid : uids)
+            if (uid > lastUid)
+                return true;
+        return false;
+    }
+
+    /**
+     * Watches the EXPUNGE responses on the connection of the folder. For another folder object or connection, the
+     * messages are checked once, since expunges may have been missed.
+     */
+    private void attach(IMAPFolder folder) throws MessagingException
+    {
+        IMAPProtocol protocol = (IMAPProtocol) folder.doCommand(p -> p);
+        if (folder == attachedFolder && protocol == attachedProtocol)
+            return;
+        if (attachedProtocol != null)
+            attachedProtocol.removeResponseHandler(expungeHandler);
+        protocol.addResponseHandler(expungeHandler);
+        attachedFolder = folder;
+        attachedProtocol = protocol;
+        expunged = true;
+    }
+
+    private void removeVanished(IMAPResponse response)
+    {
+        response.skipSpaces();
+        if (response.peekByte() == '(')
+            response.readSimpleList();
+        for (long uid : UIDSet.toArray(UIDSet.parseUIDSets(response.readAtom())))
+        {
+            if (subjects.remove(uid) != null)
+                changed();
+            flags.remove(uid);
+        }
+    }
+
+    private void changed()
+    {
+        version++;
+    }
+
+    /**
+     * Sends the command and passes the responses to the handler before Jakarta Mail sees them, because the folder's own
+     * response handling reads some of them (e.g. VANISHED)
+     */
+    private static void command(IMAPFolder folder, String command, ResponseHandler handler) throws MessagingException
+    {
+        folder.doCommand(protocol -> {
+            Response[] responses = protocol.command(command, null);
+            Response result = responses[responses.length - 1];
+            if (result.isOK())
+                for (Response response : responses)
+                    handler.handleResponse(response);
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(result);
+            return null;
+        });
+    }
+
+    private static String decode(String subject)
+    {
+        if (subject == null)
+            return null;
+        try
+        {
+            return MimeUtility.decodeText(MimeUtility.unfold(subject));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            return subject;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.alfresco.email.dsl.imap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jakarta.mail.Folder;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+
+import org.alfresco.email.connection.ImapStorePool;
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+
+/**
+ * Copies an IMAP folder with all its sub folders and messages.
+ * The source hierarchy is read with a single <code>LIST "source/*"</code>. The destination folders are then created
+ * level by level, all folders of one level at the same time, and the messages of each folder are copied with one
+ * <code>UID COPY 1:*</code> as soon as its destination exists. The work is spread over at most <code>parallelism</code>
+ * connections borrowed from the {@link ImapStorePool}, so the wall time grows with the depth of the tree rather than
+ * with the number of folders.
+ */
+public class FolderTreeCopy
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    private final ImapStorePool imapStorePool;
+    private final Store store;
+    private final int parallelism;
+
+    /**
+     * @param store the borrowed store of the current user, the connections used for the copy are borrowed for the same user
+     */
+    public FolderTreeCopy(ImapStorePool imapStorePool, Store store, int parallelism)
+    {
+        this.imapStorePool = imapStorePool;
+        this.store = store;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Copies the source folder into the destination folder
+     *
+     * @return full name of the copy
+     */
+    public String copy(Folder source, Folder destination) throws Exception
+    {
+        String sourceName = source.getFullName();
+        String copyName = destination.getFullName().isEmpty() ? source.getName() : destination.getFullName() + destination.getSeparator() + source.getName();
+
+        // relative names of the folders to copy, grouped by depth
+        TreeMap<Integer, List<String>> levels = new TreeMap<>();
+        levels.computeIfAbsent(0, depth -> new ArrayList<>()).add("");
+        for (Folder folder : source.list("*"))
+        {
+            String relativeName = folder.getFullName().substring(sourceName.length());
+            int depth = relativeName.length() - relativeName.replace(String.valueOf(folder.getSeparator()), "").length();
+            levels.computeIfAbsent(depth, d -> new ArrayList<>()).add(relativeName);
+        }
+        int folderCount = levels.values().stream().mapToInt(List::size).sum();
+        int connectionCount = Math.min(parallelism, folderCount);
+        LOG.info("IMAP: Copying {} folders from '{}' to '{}' on {} connections", folderCount, sourceName, copyName, connectionCount);
+
+        BlockingQueue<Store> connections = new ArrayBlockingQueue<>(connectionCount);
+        List<Store> borrowed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(connectionCount);
+        try
+        {
+            for (int i = 0; i < connectionCount; i++)
+            {
+                Store connection = imapStorePool.borrowAnother(store);
+                borrowed.add(connection);
+                connections.add(connection);
+            }
+
+            List<Future<?>> messageCopies = new ArrayList<>();
+            for (List<String> level : levels.values())
+            {
+                List<Future<?>> creates = new ArrayList<>();
+                for (String relativeName : level)
+                    creates.add(executor.submit(() -> withConnection(connections, connection -> {
+                        connection.getFolder(copyName + relativeName).create(Folder.HOLDS_FOLDERS);
+                    })));
+                waitFor(creates);
+
+                for (String relativeName : level)
+                    messageCopies.add(executor.submit(() -> withConnection(connections, connection -> {
+                        Folder sourceFolder = connection.getFolder(sourceName + relativeName);
+                        sourceFolder.open(Folder.READ_ONLY);
+                        try
+                        {
+                            ImapCommands.copyAllMessages(sourceFolder, connection.getFolder(copyName + relativeName));
+                        }
+                        finally
+                        {
+                            sourceFolder.close(false);
+                        }
+                    })));
+            }
+            waitFor(messageCopies);
+        }
+        finally
+        {
+            executor.shutdownNow();
+            for (Store connection : borrowed)
+                imapStorePool.release(connection);
+        }
+        return copyName;
+    }
+
+    private static Void withConnection(BlockingQueue<Store> connections, FolderTask task) throws Exception
+    {
+        Store connection = connections.take();
+        try
+        {
+            task.run(connection);
+            return null;
+        }
+        finally
+        {
+            connections.add(connection);
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws Exception
+    {
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    private interface FolderTask
+    {
+        void run(Store connection) throws MessagingException;
+    }
+}
@@ -2,14 +2,17 @@ package org.alfresco.email.dsl.imap;
 
 import static org.alfresco.utility.report.log.Step.STEP;
 
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 import jakarta.mail.*;
 
 import org.alfresco.email.ImapWrapper;
+import org.alfresco.email.connection.ImapFolderTree;
 import org.alfresco.utility.TasProperties;
+import org.alfresco.utility.Utility;
 import org.alfresco.utility.dsl.DSLAssertion;
 import org.alfresco.utility.model.ContentModel;
 import org.alfresco.utility.model.FileModel;
@@ -38,8 +41,7 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     public ImapWrapper countMessagesIs(int messageCount) throws Exception
     {
         Folder folder = getProtocol().withImapUtil().getCurrentFolder();
-        if (!folder.isOpen())
-            folder.open(Folder.READ_ONLY);
+        getProtocol().getFolderHandles().refresh(getProtocol().getFolderHandles().open(folder, Folder.READ_ONLY));
         STEP(String.format("IMAP: Assert folder '%s' has %s messages", folder.getFullName(), messageCount));
         Assert.assertEquals(folder.getMessageCount(), messageCount, String.format("Messages found in [%s]", folder.getFullName()));
         return getProtocol();
@@ -99,7 +101,7 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     }
 
     /**
-     * Verify current folder contains message
+     * Verify current folder contains message. All subjects are read once and every missing message is reported together.
      *
      * @param fileModels expected message to exist
      * @return current wrapper
@@ -108,15 +110,24 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     public ImapWrapper containsMessages(FileModel... fileModels) throws Exception
     {
         Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        SubjectIndex subjectIndex = getProtocol().getSubjectIndex(currentFolder);
+        Set<String> subjects = subjectIndex.getSubjects(currentFolder);
+        List<String> missing = new ArrayList<>();
         for (FileModel fileModel : fileModels)
         {
             String contentModelName = getProtocol().withImapUtil().getObjectName(fileModel.getName());
             STEP(String.format("IMAP: Assert that folder '%s' contains message '%s'", getProtocol().getLastResource(), contentModelName));
-            Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), contentModelName);
-            Assert.assertNotNull(message, String.format("Message '%s' does not exist in folder '%s'", contentModelName, currentFolder.getName()));
+            if (!subjects.contains(contentModelName))
+                missing.add(contentModelName);
         }
+        if (!missing.isEmpty())
+        {
+            // the messages may have been added by another client since the connection last heard from the server
+            subjectIndex.resync(currentFolder);
+            missing.removeIf(subjectIndex.getSubjects(currentFolder)::contains);
+        }
+        Assert.assertTrue(missing.isEmpty(), String.format("Messages %s do not exist in folder '%s'", missing, currentFolder.getName()));
 
         return getProtocol();
     }
@@ -129,29 +140,36 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
      * @throws Exception
      */
     public ImapWrapper fileContentIsDisplayed() throws Exception
+    {
+        return fileContentIsDisplayed(0);
+    }
+
+    /**
+     * Verify file content as {@link #fileContentIsDisplayed()}, reading only the first bytes of the text part of the message.
+     * Only the text part is fetched, see {@link TextPartFetcher}, so the document attached to the message is never downloaded.
+     *
+     * @param maxBytes how many bytes of the text part are read at most, 0 for the whole text part
+     * @return current wrapper
+     * @throws Exception
+     */
+    public ImapWrapper fileContentIsDisplayed(int maxBytes) throws Exception
     {
         String contentModelName = getProtocol().withImapUtil().getObjectName(getProtocol().getLastResource());
         STEP(String.format("IMAP: Assert that message '%s' content is displayed", contentModelName));
-        Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder().getParent();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), contentModelName);
+        Folder currentFolder = getProtocol().withImapUtil().getCurrentParentFolder();
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder, contentModelName);
         if(message == null)
             throw new MessagingException(String.format("No message with subject %s has been found", contentModelName));
-        String messageContent = getProtocol().withImapUtil().getMessageContent(message);
-
-        Assert.assertTrue(messageContent.contains("Document name"), "File content does not contain 'Document name'");
-        Assert.assertTrue(messageContent.contains("Title"), "File content does not contain 'Title'");
-        Assert.assertTrue(messageContent.contains("Description"), "File content does not contain 'Description'");
-        Assert.assertTrue(messageContent.contains("Creator"), "File content does not contain 'Creator'");
-        Assert.assertTrue(messageContent.contains("Created"), "File content does not contain 'Created'");
-        Assert.assertTrue(messageContent.contains("Modifier"), "File content does not contain 'Modifier'");
-        Assert.assertTrue(messageContent.contains("Modified"), "File content does not contain 'Modified'");
-        Assert.assertTrue(messageContent.contains("Size"), "File content does not contain 'Size'");
-        Assert.assertTrue(messageContent.contains("CONTENT LINKS"), "File content does not contain 'CONTENT LINKS'");
-        Assert.assertTrue(messageContent.contains("Content folder"), "File content does not contain 'Content folder'");
-        Assert.assertTrue(messageContent.contains("Content URL"), "File content does not contain 'Content URL'");
-        Assert.assertTrue(messageContent.contains("Download URL"), "File content does not contain 'Download URL'");
+        String[] markers = { "Document name", "Title", "Description", "Creator", "Created", "Modifier", "Modified", "Size",
+                "CONTENT LINKS", "Content folder", "Content URL", "Download URL" };
+        MessageContentMatcher contentMatcher = new MessageContentMatcher();
+        for (String marker : markers)
+            contentMatcher.expect(marker);
+        Set<String> missing = findMissing(contentMatcher, message, maxBytes);
+
+        for (String marker : markers)
+            Assert.assertFalse(missing.contains(marker), String.format("File content does not contain '%s'", marker));
 
         return getProtocol();
     }
@@ -165,43 +183,34 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
      */
     public ImapWrapper messageContentMatchesFileModelData(FileModel fileModel) throws Exception
     {
-        String value = null;
         String contentModelName = getProtocol().withImapUtil().getObjectName(fileModel.getName());
-        Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder().getParent();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), contentModelName);
+        Folder currentFolder = getProtocol().withImapUtil().getCurrentParentFolder();
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder, contentModelName);
         if(message == null)
             throw new MessagingException(String.format("No message with subject %s has been found", contentModelName));
-        String messageContent = getProtocol().withImapUtil().getMessageContent(message).replaceAll(" ", "");
-
-        Assert.assertTrue(messageContent.contains("Documentname:" + contentModelName), "File content Title is incorrect");
-
-        if (fileModel.getTitle() == null)
-            value = "NONE";
-        else
-            value = fileModel.getTitle();
-
-        Assert.assertTrue(messageContent.contains("Title:" + value), "File content Title is incorrect");
-
-        if (fileModel.getDescription() == null)
-            value = "NONE";
-        else
-            value = fileModel.getDescription();
-
-        Assert.assertTrue(messageContent.contains("Description:" + value), "File content Description is incorrect");
-
-        Pattern pattern = Pattern.compile("Contentfolder:.*" + String.format("share/page/site/IMAPsite%s", currentFolder.getFullName().split("IMAPsite")[1]).toLowerCase());
-        Matcher matcher = pattern.matcher(messageContent);
-        Assert.assertTrue(matcher.find(), "File content 'Content folder' is incorrect");
-
-        pattern = Pattern.compile("ContentURL:.*" +
-                String.format("share/proxy/alfresco/api/node/content/workspace/SpacesStore/%s/%s", fileModel.getNodeRef().split(";")[0], contentModelName));
-        matcher = pattern.matcher(messageContent);
-        Assert.assertTrue(matcher.find(), "File content 'Content URL' is incorrect");
-
-        Assert.assertTrue(messageContent.contains(String.format("share/proxy/alfresco/api/node/content/workspace/SpacesStore/%s/%s?a=true",
-                fileModel.getNodeRef().split(";")[0], contentModelName)), "File content 'Download URL' is incorrect");
+        String title = fileModel.getTitle() == null ? "NONE" : fileModel.getTitle();
+        String description = fileModel.getDescription() == null ? "NONE" : fileModel.getDescription();
+        String contentFolder = String.format("share/page/site/IMAPsite%s", currentFolder.getFullName().split("IMAPsite")[1]).toLowerCase();
+        String contentUrl = String.format("share/proxy/alfresco/api/node/content/workspace/SpacesStore/%s/%s", fileModel.getNodeRef().split(";")[0], contentModelName);
+        String downloadUrl = contentUrl + "?a=true";
+
+        // the content is compared with all spaces removed
+        MessageContentMatcher contentMatcher = new MessageContentMatcher().ignoring(' ')
+                .expect("Documentname:" + contentModelName)
+                .expect("Title:" + title)
+                .expect("Description:" + description)
+                .expectOnSameLine("Contentfolder:", contentFolder)
+                .expectOnSameLine("ContentURL:", contentUrl)
+                .expect(downloadUrl);
+        Set<String> missing = findMissing(contentMatcher, message, 0);
+
+        Assert.assertFalse(missing.contains("Documentname:" + contentModelName), "File content Title is incorrect");
+        Assert.assertFalse(missing.contains("Title:" + title), "File content Title is incorrect");
+        Assert.assertFalse(missing.contains("Description:" + description), "File content Description is incorrect");
+        Assert.assertFalse(missing.contains("Contentfolder:.*" + contentFolder), "File content 'Content folder' is incorrect");
+        Assert.assertFalse(missing.contains("ContentURL:.*" + contentUrl), "File content 'Content URL' is incorrect");
+        Assert.assertFalse(missing.contains(downloadUrl), "File content 'Download URL' is incorrect");
 
         return getProtocol();
     }
@@ -229,11 +238,10 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
      */
     public ImapWrapper contains(FolderModel... folderModels) throws Exception
     {
-        List<FolderModel> foldersList = getProtocol().getFolders();
         for (FolderModel folder: folderModels)
         {
             STEP(String.format("IMAP: Assert that '%s' folder contains folder '%s'", getProtocol().getLastResource(), folder.getName()));
-            Assert.assertTrue(isFolderInList(folder.getName(), foldersList));
+            Assert.assertTrue(isFolderInCurrentFolder(folder.getName(), true));
         }
         return getProtocol();
     }
@@ -247,29 +255,45 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
      */
     public ImapWrapper contains(SiteModel... siteModels) throws Exception
     {
-        List<FolderModel> foldersList = getProtocol().getFolders();
         for (SiteModel site : siteModels)
         {
             STEP(String.format("IMAP: Assert that '%s' folder contains folder '%s'", getProtocol().getLastResource(), site.getId()));
-            Assert.assertTrue(isFolderInList(site.getId(), foldersList));
+            Assert.assertTrue(isFolderInCurrentFolder(site.getId(), true));
         }
         return getProtocol();
     }
 
-    private boolean isFolderInList(String folderName, List<FolderModel> folders)
+    /**
+     * Looks for the markers in the text part of the message, or in the whole message if it has no text part
+     */
+    private Set<String> findMissing(MessageContentMatcher contentMatcher, Message message, int maxBytes) throws Exception
     {
-        for (ContentModel folder : folders)
+        Reader text = TextPartFetcher.fetchText(message, maxBytes);
+        if (text == null)
+            return contentMatcher.findMissing(message);
+        try (Reader reader = text)
         {
-            if (folderName.equals(folder.getName()))
-            {
-                return true;
-            }
+            return contentMatcher.findMissing(reader);
         }
-        return false;
     }
 
     /**
-     * Verify current folder does not contain message
+     * Looks the folder up in the folder tree snapshot. If the snapshot does not give the expected answer it is read
+     * again, because the folder may have been created or deleted outside of IMAP since it was taken.
+     */
+    private boolean isFolderInCurrentFolder(String folderName, boolean expected) throws Exception
+    {
+        String currentSpace = getProtocol().getCurrentSpace();
+        String path = currentSpace.isEmpty() ? "" : Utility.removeLastSlash(currentSpace);
+        ImapFolderTree folderTree = getProtocol().getFolderTree();
+        if (folderTree.hasChild(path, folderName) == expected)
+            return expected;
+        folderTree.refresh();
+        return folderTree.hasChild(path, folderName);
+    }
+
+    /**
+     * Verify current folder does not contain message. All subjects are read once and every unexpected message is reported together.
      *
      * @param fileModels expected message to not be present
      * @return current wrapper
@@ -278,15 +302,24 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     public ImapWrapper doesNotContainMessages(FileModel... fileModels) throws Exception
     {
         Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        SubjectIndex subjectIndex = getProtocol().getSubjectIndex(currentFolder);
+        Set<String> subjects = subjectIndex.getSubjects(currentFolder);
+        List<String> unexpected = new ArrayList<>();
         for (FileModel fileModel : fileModels)
         {
             String contentModelName = getProtocol().withImapUtil().getObjectName(fileModel.getName());
             STEP(String.format("IMAP: Assert that folder '%s' does not contain message '%s'", getProtocol().getLastResource(), contentModelName));
-            Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), contentModelName);
-            Assert.assertNull(message, String.format("Message '%s' exists in folder '%s'", contentModelName, currentFolder.getName()));
+            if (subjects.contains(contentModelName))
+                unexpected.add(contentModelName);
         }
+        if (!unexpected.isEmpty())
+        {
+            // the messages may have been expunged by another client since the connection last heard from the server
+            subjectIndex.resync(currentFolder);
+            unexpected.retainAll(subjectIndex.getSubjects(currentFolder));
+        }
+        Assert.assertTrue(unexpected.isEmpty(), String.format("Messages %s exist in folder '%s'", unexpected, currentFolder.getName()));
         return getProtocol();
     }
 
@@ -301,16 +334,18 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     {
         String flagName = "";
         String fileName = getProtocol().withImapUtil().getObjectName(getProtocol().getLastResource());
-        Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder().getParent();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), fileName);
-        if(message == null)
+        Folder currentFolder = getProtocol().withImapUtil().getCurrentParentFolder();
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        SubjectIndex subjectIndex = getProtocol().getSubjectIndex(currentFolder);
+        Long uid = subjectIndex.getUid(currentFolder, fileName);
+        if(uid == null)
             throw new MessagingException(String.format("No message with subject %s has been found", fileName));
+        // read from the server, flags stored with BulkMessageFlags are not sent back to the client
+        Flags messageFlags = subjectIndex.getFlags(currentFolder, uid);
         for (Flags.Flag flag : flags) {
             flagName = getProtocol().withImapUtil().getMessageFlagName(flag);
             STEP(String.format("IMAP: Assert that message '%s' has flag '%s' set", fileName, flagName));
-            Assert.assertTrue(message.getFlags().contains(flag), String.format("Message '%s' does not have flag '%s' set", fileName, flagName));
+            Assert.assertTrue(messageFlags.contains(flag), String.format("Message '%s' does not have flag '%s' set", fileName, flagName));
         }
         return getProtocol();
     }
@@ -326,16 +361,18 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     {
         String flagName = "";
         String fileName = getProtocol().withImapUtil().getObjectName(getProtocol().getLastResource());
-        Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder().getParent();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), fileName);
-        if(message == null)
+        Folder currentFolder = getProtocol().withImapUtil().getCurrentParentFolder();
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        SubjectIndex subjectIndex = getProtocol().getSubjectIndex(currentFolder);
+        Long uid = subjectIndex.getUid(currentFolder, fileName);
+        if(uid == null)
             throw new MessagingException(String.format("No message with subject %s has been found", fileName));
+        // read from the server, flags stored with BulkMessageFlags are not sent back to the client
+        Flags messageFlags = subjectIndex.getFlags(currentFolder, uid);
         for (Flags.Flag flag : flags) {
             flagName = getProtocol().withImapUtil().getMessageFlagName(flag);
             STEP(String.format("IMAP: Assert that message '%s' does not have flag '%s' set", fileName, flagName));
-            Assert.assertFalse(message.getFlags().contains(flag), String.format("Message '%s' has flag '%s' set", fileName, flagName));
+            Assert.assertFalse(messageFlags.contains(flag), String.format("Message '%s' has flag '%s' set", fileName, flagName));
         }
         return getProtocol();
     }
@@ -393,9 +430,8 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     {
         STEP(String.format("IMAP: Assert that sender name of message with subject '%s' sender is '%s'", subject, sender));
         Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), subject);
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder, subject);
         if(message == null)
             throw new MessagingException(String.format("No message with subject %s has been found", subject));
         String messageFrom = message.getFrom()[0].toString();
@@ -415,9 +451,8 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     {
         STEP(String.format("IMAP: Assert that message '%s' sender is '%s'", subject, sender));
         Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), subject);
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        Message message = getProtocol().withImapUtil().getMessageBySubject(currentFolder, subject);
         if(message == null)
             throw new MessagingException(String.format("No message with subject %s has been found", subject));
         String messageFrom = message.getFrom()[0].toString();
@@ -436,9 +471,8 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
     {
         STEP(String.format("IMAP: Assert that message with subject '%s' is found", subject));
         Folder currentFolder = getProtocol().withImapUtil().getCurrentFolder();
-        if (!currentFolder.isOpen())
-            currentFolder.open(Folder.READ_ONLY);
-        Assert.assertNotNull(getProtocol().withImapUtil().getMessageBySubject(currentFolder.getMessages(), subject), String.format("No message with subject %s has been found", subject));
+        getProtocol().getFolderHandles().open(currentFolder, Folder.READ_ONLY);
+        Assert.assertNotNull(getProtocol().withImapUtil().getMessageBySubject(currentFolder, subject), String.format("No message with subject %s has been found", subject));
         return getProtocol();
     }
 
@@ -451,11 +485,10 @@ public class ImapAssertion extends DSLAssertion<ImapWrapper>
      */
     public ImapWrapper doesNotContain(FolderModel... folderModels) throws Exception
     {
-        List<FolderModel> foldersList = getProtocol().getFolders();
         for (FolderModel folder: folderModels)
         {
             STEP(String.format("IMAP: Assert that '%s' folder does not contain folder '%s'", getProtocol().getLastResource(), folder.getName()));
-            Assert.assertFalse(isFolderInList(folder.getName(), foldersList));
+            Assert.assertFalse(isFolderInCurrentFolder(folder.getName(), false));
         }
         return getProtocol();
     }
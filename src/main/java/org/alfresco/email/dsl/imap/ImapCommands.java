@@ -0,0 +1,284 @@
+package org.alfresco.email.dsl.imap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+
+import com.sun.mail.iap.Argument;
+import com.sun.mail.iap.BadCommandException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.protocol.BASE64MailboxEncoder;
+import com.sun.mail.imap.protocol.IMAPResponse;
+import com.sun.mail.imap.protocol.UIDSet;
+
+/**
+ * UID based IMAP commands that Jakarta Mail does not expose, or only expose with message sequence numbers.
+ * Messages are addressed by UID sets like <code>4:9,12</code>, so one command handles any number of messages and the
+ * result does not depend on messages expunged in the meantime. The folders passed in must be open.
+ */
+public final class ImapCommands
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    /**
+     * UID set of all messages of a folder
+     */
+    public static final String ALL_UIDS = "1:*";
+
+    private ImapCommands()
+    {
+    }
+
+    /**
+     * Copies the messages on the server with one <code>UID COPY</code>, the content never travels to the client.
+     * Falls back to APPEND if the folders are not on the same IMAP store or the server does not know the command.
+     */
+    public static void copyMessages(Folder source, Message[] messages, Folder destination) throws MessagingException
+    {
+        if (messages.length == 0)
+            return;
+        if (!isSameImapStore(source, destination))
+        {
+            destination.appendMessages(messages);
+            return;
+        }
+        try
+        {
+            uidCommand(source, "COPY", toUidSet(source, messages), destination.getFullName());
+        }
+        catch (MessagingException e)
+        {
+            if (!(e.getCause() instanceof BadCommandException))
+                throw e;
+            LOG.info("IMAP: UID COPY is not supported by the server, appending the messages instead");
+            destination.appendMessages(messages);
+        }
+    }
+
+    /**
+     * Copies all messages of the source folder with one <code>UID COPY 1:*</code>, see {@link #copyMessages}
+     */
+    public static void copyAllMessages(Folder source, Folder destination) throws MessagingException
+    {
+        if (source.getMessageCount() == 0)
+            return;
+        if (!isSameImapStore(source, destination))
+        {
+            destination.appendMessages(source.getMessages());
+            return;
+        }
+        try
+        {
+            uidCommand(source, "COPY", ALL_UIDS, destination.getFullName());
+        }
+        catch (MessagingException e)
+        {
+            if (!(e.getCause() instanceof BadCommandException))
+                throw e;
+            LOG.info("IMAP: UID COPY is not supported by the server, appending the messages instead");
+            destination.appendMessages(source.getMessages());
+        }
+    }
+
+    /**
+     * Moves the messages on the server. The source folder must be open READ_WRITE.
+     * <code>UID MOVE</code> (RFC 6851) is used if the server announces the MOVE capability, otherwise the messages are
+     * copied with <code>UID COPY</code>, flagged \Deleted and expunged with <code>UID EXPUNGE</code> (or a plain EXPUNGE
+     * if the server has no UIDPLUS support).
+     * After a <code>UID MOVE</code> Jakarta Mail still counts the moved messages in the message count of the source
+     * folder, until the folder is expunged or opened again.
+     */
+    public static void moveMessages(Folder source, Message[] messages, Folder destination) throws MessagingException
+    {
+        if (messages.length == 0)
+            return;
+        if (isSameImapStore(source, destination) && hasCapability(source, "MOVE"))
+        {
+            uidCommand(source, "MOVE", toUidSet(source, messages), destination.getFullName());
+            return;
+        }
+        copyMessages(source, messages, destination);
+        uidStore(source, toUidSet(source, messages), "+FLAGS.SILENT", "(\\Deleted)");
+        uidExpunge(source, messages);
+    }
+
+    /**
+     * Adds or removes the flags of all messages of the UID set with one <code>UID STORE &lt;uidSet&gt; +FLAGS.SILENT</code>
+     * (or <code>-FLAGS.SILENT</code>). The server does not answer with the new flags, so flags already loaded in
+     * {@link Message} objects stay as they were until {@link #fetchFlags} is called.
+     */
+    public static void storeFlags(Folder folder, String uidSet, Flags flags, boolean set) throws MessagingException
+    {
+        uidStore(folder, uidSet, set ? "+FLAGS.SILENT" : "-FLAGS.SILENT", toFlagList(flags));
+    }
+
+    /**
+     * Reloads the flags of the messages of the UID set with one <code>UID FETCH &lt;uidSet&gt; (FLAGS)</code>, the
+     * responses update the {@link Message} objects of the folder
+     */
+    public static void fetchFlags(Folder folder, String uidSet) throws MessagingException
+    {
+        ((IMAPFolder) folder).doCommand(protocol -> {
+            Response[] responses = protocol.command("UID FETCH " + uidSet + " (FLAGS)", null);
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(responses[responses.length - 1]);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the IMAP flag list of the flags, e.g. <code>(\Seen \Flagged)</code>
+     */
+    public static String toFlagList(Flags flags)
+    {
+        StringBuilder flagList = new StringBuilder();
+        for (Flags.Flag flag : flags.getSystemFlags())
+        {
+            String name;
+            if (flag == Flags.Flag.ANSWERED)
+                name = "\\Answered";
+            else if (flag == Flags.Flag.DELETED)
+                name = "\\Deleted";
+            else if (flag == Flags.Flag.DRAFT)
+                name = "\\Draft";
+            else if (flag == Flags.Flag.FLAGGED)
+                name = "\\Flagged";
+            else if (flag == Flags.Flag.RECENT)
+                name = "\\Recent";
+            else if (flag == Flags.Flag.SEEN)
+                name = "\\Seen";
+            else
+                continue;
+            flagList.append(flagList.length() == 0 ? "" : " ").append(name);
+        }
+        for (String userFlag : flags.getUserFlags())
+            flagList.append(flagList.length() == 0 ? "" : " ").append(userFlag);
+        return "(" + flagList + ")";
+    }
+
+    /**
+     * Sends <code>UID STORE &lt;uidSet&gt; &lt;item&gt; &lt;flagList&gt;</code>, e.g. item <code>+FLAGS.SILENT</code> and
+     * flag list <code>(\Deleted)</code>
+     */
+    public static void uidStore(Folder folder, String uidSet, String item, String flagList) throws MessagingException
+    {
+        ((IMAPFolder) folder).doCommand(protocol -> {
+            Response[] responses = protocol.command("UID STORE " + uidSet + " " + item + " " + flagList, null);
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(responses[responses.length - 1]);
+            return null;
+        });
+    }
+
+    /**
+     * Permanently removes the messages, which must be flagged \Deleted, with <code>UID EXPUNGE</code>. Jakarta Mail's
+     * own command is used, so the message count of the folder goes down as with {@link Folder#expunge()}.
+     * Without UIDPLUS support the other messages flagged \Deleted are unflagged for the time of a plain EXPUNGE, as
+     * described in RFC 4315.
+     */
+    public static void uidExpunge(Folder folder, Message[] messages) throws MessagingException
+    {
+        if (messages.length == 0)
+            return;
+        if (hasCapability(folder, "UIDPLUS"))
+        {
+            ((IMAPFolder) folder).expunge(messages);
+            return;
+        }
+        String others = uidSearch(folder, "DELETED NOT UID " + toUidSet(folder, messages));
+        if (!others.isEmpty())
+            uidStore(folder, others, "-FLAGS.SILENT", "(\\Deleted)");
+        folder.expunge();
+        if (!others.isEmpty())
+            uidStore(folder, others, "+FLAGS.SILENT", "(\\Deleted)");
+    }
+
+    /**
+     * Returns the UID set of the messages matching the search criteria, e.g. <code>DELETED</code>, or an empty string
+     */
+    public static String uidSearch(Folder folder, String criteria) throws MessagingException
+    {
+        return (String) ((IMAPFolder) folder).doCommand(protocol -> {
+            Response[] responses = protocol.command("UID SEARCH " + criteria, null);
+            Response result = responses[responses.length - 1];
+            List<Long> uids = new ArrayList<>();
+            if (result.isOK())
+                for (Response response : responses)
+                    if (response instanceof IMAPResponse && ((IMAPResponse) response).keyEquals("SEARCH"))
+                    {
+                        long uid;
+                        while ((uid = response.readLong()) != -1)
+                            uids.add(uid);
+                    }
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(result);
+            return toUidSet(uids);
+        });
+    }
+
+    /**
+     * Returns the UID set of the UIDs, e.g. <code>4:9,12</code>, or an empty string if there are none
+     */
+    public static String toUidSet(Collection<Long> uids)
+    {
+        if (uids.isEmpty())
+            return "";
+        long[] sorted = uids.stream().mapToLong(Long::longValue).sorted().toArray();
+        return UIDSet.toString(UIDSet.createUIDSets(sorted));
+    }
+
+    /**
+     * Returns the UID set of the messages, the missing UIDs are fetched with one FETCH command
+     */
+    public static String toUidSet(Folder folder, Message[] messages) throws MessagingException
+    {
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+        folder.fetch(messages, fetchProfile);
+
+        UIDFolder uidFolder = (UIDFolder) folder;
+        long[] uids = new long[messages.length];
+        for (int i = 0; i < messages.length; i++)
+            uids[i] = uidFolder.getUID(messages[i]);
+        return UIDSet.toString(UIDSet.createUIDSets(uids));
+    }
+
+    public static boolean hasCapability(Folder folder, String capability) throws MessagingException
+    {
+        return folder.getStore() instanceof IMAPStore && ((IMAPStore) folder.getStore()).hasCapability(capability);
+    }
+
+    private static boolean isSameImapStore(Folder source, Folder destination)
+    {
+        return source instanceof IMAPFolder && source.getStore() == destination.getStore();
+    }
+
+    private static void uidCommand(Folder source, String command, String uidSet, String mailbox) throws MessagingException
+    {
+        ((IMAPFolder) source).doCommand(protocol -> {
+            Argument args = new Argument();
+            args.writeAtom(uidSet);
+            if (protocol.supportsUtf8())
+                args.writeString(mailbox, StandardCharsets.UTF_8);
+            else
+                args.writeString(BASE64MailboxEncoder.encode(mailbox));
+            Response[] responses = protocol.command("UID " + command, args);
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(responses[responses.length - 1]);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,254 @@
+package org.alfresco.email.dsl.imap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
+
+/**
+ * Searches that are evaluated by the IMAP server.
+ * Only standard {@link jakarta.mail.search.SearchTerm}s are translated into an IMAP SEARCH command, custom subclasses
+ * make Jakarta Mail fetch every message to the client, so the methods here never pass one to {@link Folder#search}.
+ */
+public final class ImapSearch
+{
+    private ImapSearch()
+    {
+    }
+
+    /**
+     * Returns the messages whose subject contains the searched term.
+     * The folder must be open. A single <code>SEARCH SUBJECT</code> is sent to the server and only the envelopes of the hits
+     * are fetched. IMAP subject search is case-insensitive, so the hits are narrowed down to the case-sensitive match.
+     */
+    public static List<Message> searchSubject(Folder folder, String searchedTerm) throws MessagingException
+    {
+        Message[] hits = folder.search(new SubjectTerm(searchedTerm));
+        fetchEnvelopes(folder, hits);
+
+        List<Message> results = new ArrayList<>(hits.length);
+        for (Message message : hits)
+        {
+            String subject = message.getSubject();
+            if (subject != null && subject.contains(searchedTerm))
+                results.add(message);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the messages whose whole subject matches the regular expression, as {@link String#matches} does.
+     * The folder must be open. The literal parts the expression requires (see {@link #requiredLiterals}) are sent as one
+     * <code>SEARCH SUBJECT .. SUBJECT ..</code>, so the compiled pattern only runs on the subjects of the hits. Without
+     * such literals the envelopes of all messages are fetched with one FETCH.
+     */
+    public static List<Message> searchSubjectMatching(Folder folder, String regex) throws MessagingException
+    {
+        Pattern pattern = Pattern.compile(regex);
+        List<String> literals = requiredLiterals(regex);
+
+        Message[] candidates;
+        if (literals.isEmpty())
+        {
+            candidates = folder.getMessages();
+        }
+        else
+        {
+            SearchTerm[] terms = new SearchTerm[literals.size()];
+            for (int i = 0; i < terms.length; i++)
+                terms[i] = new SubjectTerm(literals.get(i));
+            candidates = folder.search(terms.length == 1 ? terms[0] : new AndTerm(terms));
+        }
+        fetchEnvelopes(folder, candidates);
+
+        List<Message> results = new ArrayList<>();
+        for (Message message : candidates)
+        {
+            String subject = message.getSubject();
+            if (subject != null && pattern.matcher(subject).matches())
+                results.add(message);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the literal strings every match of the regular expression contains, e.g. <code>report-</code> and
+     * <code>.pdf</code> for <code>report-.*\.pdf</code>. Literals inside groups, and all literals of expressions with
+     * a top level alternation or with <code>(?</code> constructs (flags, look-arounds), are left out, so the result may
+     * be empty but never contains a string that a match could miss.
+     */
+    static List<String> requiredLiterals(String regex)
+    {
+        List<String> literals = new ArrayList<>();
+        if (regex.contains("(?"))
+            return literals;
+
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean lastWasLiteral = false;
+        for (int i = 0; i < regex.length(); i++)
+        {
+            char c = regex.charAt(i);
+            String literal = null;
+            if (c == '\\' && i + 1 < regex.length())
+            {
+                char escaped = regex.charAt(++i);
+                if (escaped == 'Q')
+                {
+                    int end = regex.indexOf("\\E", i + 1);
+                    literal = end < 0 ? regex.substring(i + 1) : regex.substring(i + 1, end);
+                    i = end < 0 ? regex.length() : end + 1;
+                }
+                else if (!Character.isLetterOrDigit(escaped))
+                {
+                    literal = String.valueOf(escaped);
+                }
+                else
+                {
+                    // character classes, boundaries, back references and escaped code points are not literals
+                    i = skipEscape(regex, i);
+                }
+            }
+            else if (c == '*' || c == '?' || c == '+' || c == '{')
+            {
+                // the quantified character is optional or may repeat, so the current literal ends before or after it
+                if (lastWasLiteral && depth == 0 && c != '+')
+                    run.setLength(run.length() - 1);
+                if (c == '{')
+                    i = Math.max(i, regex.indexOf('}', i));
+                if (i + 1 < regex.length() && (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+'))
+                    i++;
+            }
+            else if (c == '|' && depth == 0)
+            {
+                literals.clear();
+                return literals;
+            }
+            else if (c == '[')
+            {
+                i = skipCharacterClass(regex, i);
+            }
+            else if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')')
+            {
+                depth = Math.max(0, depth - 1);
+            }
+            else if (c != '.' && c != '^' && c != '$' && c != '|')
+            {
+                literal = String.valueOf(c);
+            }
+
+            lastWasLiteral = literal != null;
+            if (literal != null && depth == 0)
+            {
+                run.append(literal);
+            }
+            else if (run.length() > 0)
+            {
+                literals.add(run.toString());
+                run.setLength(0);
+            }
+        }
+        if (run.length() > 0)
+            literals.add(run.toString());
+        return literals;
+    }
+
+    /**
+     * Returns the index of the last character of an escape sequence that starts with a letter or digit, e.g. of the
+     * <code>}</code> of <code>\p{Lu}</code>. Where the length is not fixed, as for back references and octal escapes, the
+     * longest possible sequence is skipped: a skipped literal only makes the search less selective.
+     *
+     * @param start index of the character after the backslash
+     */
+    private static int skipEscape(String regex, int start)
+    {
+        char escaped = regex.charAt(start);
+        int next = start + 1;
+        switch (escaped)
+        {
+            case 'x':
+                if (next < regex.length() && regex.charAt(next) == '{')
+                    return skipTo(regex, next, '}');
+                return Math.min(start + 2, regex.length() - 1);
+            case 'u':
+                return Math.min(start + 4, regex.length() - 1);
+            case '0':
+                return skipWhile(regex, start, "01234567", 3);
+            case 'c':
+                return Math.min(next, regex.length() - 1);
+            case 'k':
+                return skipTo(regex, next, '>');
+            case 'p':
+            case 'P':
+            case 'N':
+                if (next < regex.length() && regex.charAt(next) == '{')
+                    return skipTo(regex, next, '}');
+                return Math.min(next, regex.length() - 1);
+            default:
+                if (escaped >= '1' && escaped <= '9')
+                    return skipWhile(regex, start, "0123456789", Integer.MAX_VALUE);
+                return start;
+        }
+    }
+
+    private static int skipTo(String regex, int start, char end)
+    {
+        int index = regex.indexOf(end, start);
+        return index < 0 ? regex.length() - 1 : index;
+    }
+
+    /**
+     * @return the index of the last of at most <code>max</code> characters of <code>chars</code> after <code>start</code>
+     */
+    private static int skipWhile(String regex, int start, String chars, int max)
+    {
+        int i = start;
+        for (int count = 0; count < max && i + 1 < regex.length() && chars.indexOf(regex.charAt(i + 1)) >= 0; count++)
+            i++;
+        return i;
+    }
+
+    private static int skipCharacterClass(String regex, int start)
+    {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^')
+            i++;
+        if (i < regex.length() && regex.charAt(i) == ']')
+            i++;
+        int depth = 1;
+        for (; i < regex.length(); i++)
+        {
+            char c = regex.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == '[')
+                depth++;
+            else if (c == ']' && --depth == 0)
+                return i;
+        }
+        return regex.length();
+    }
+
+    /**
+     * Fetches the envelopes of all messages with one FETCH command instead of one per message
+     */
+    public static void fetchEnvelopes(Folder folder, Message[] messages) throws MessagingException
+    {
+        if (messages.length == 0)
+            return;
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        folder.fetch(messages, fetchProfile);
+    }
+}
@@ -1,6 +1,7 @@
 package org.alfresco.email.dsl.imap;
 
 import org.alfresco.email.ImapWrapper;
+import org.alfresco.email.connection.ImapFolderHandles;
 import org.alfresco.utility.LogFactory;
 import org.alfresco.utility.Utility;
 import org.alfresco.utility.model.ContentModel;
@@ -19,19 +20,30 @@ public class ImapUtil {
         this.imapProtocol = imapProtocol;
     }
 
+    /**
+     * Returns the handle of the last resource folder, see {@link ImapFolderHandles#get(String)}
+     */
     public Folder getCurrentFolder() throws Exception
     {
         String folderPath = imapProtocol.getLastResource();
         folderPath = Utility.removeLastSlash(folderPath);
-        return getImapStore().getFolder(folderPath);
+        return getFolderHandles().get(folderPath);
+    }
+
+    /**
+     * Returns the handle of the folder that contains the last resource
+     */
+    public Folder getCurrentParentFolder() throws Exception
+    {
+        return getFolderHandles().getParent(imapProtocol.getLastResource());
     }
 
-    private Store getImapStore()
+    private ImapFolderHandles getFolderHandles()
     {
         if (imapProtocol.getImapStore() == null)
             LOG.error("You must first authenticate to IMAP server. Use authenticateUser() method.");
 
-        return imapProtocol.getImapStore();
+        return imapProtocol.getFolderHandles();
     }
 
     /**
@@ -44,7 +56,18 @@ public class ImapUtil {
         {
             folderPath = imapProtocol.getPrefixSpace() + Utility.removeLastSlash(folderPath);
         }
-        return getImapStore().getFolder(folderPath);
+        return getFolderHandles().get(folderPath);
+    }
+
+    /**
+     * Returns message if it exists otherwise returns null.
+     * The lookup goes through the {@link SubjectIndex} of the folder, so only the first call fetches the subjects.
+     *
+     * @param folder open folder
+     */
+    public Message getMessageBySubject(Folder folder, String subject) throws Exception
+    {
+        return imapProtocol.getSubjectIndex(folder).getMessage(folder, subject);
     }
 
     /**
@@ -52,6 +75,8 @@ public class ImapUtil {
      */
     public Message getMessageBySubject(Message[] messages, String subject) throws Exception
     {
+        if (messages.length > 0)
+            ImapSearch.fetchEnvelopes(messages[0].getFolder(), messages);
         for (Message message : messages)
             if (message.getSubject().equals(subject))
                 return message;
@@ -59,23 +84,24 @@ public class ImapUtil {
     }
 
     /**
-     * Returns multipart message content as text
+     * Returns multipart message content as text.
+     * To look for markers in the content use {@link MessageContentMatcher}, which does not load the whole message.
      */
     protected String getMessageContent(Message message) throws Exception
     {
         Multipart multipart = (Multipart) message.getContent();
-        String content = "";
+        StringBuilder content = new StringBuilder();
         for (int i = 0; i < multipart.getCount(); i++) 
         {
             BodyPart part = multipart.getBodyPart(i);
-            content += part.getContent().toString();
+            content.append(part.getContent().toString());
         }
-        if (content.equals(""))
+        if (content.length() == 0)
         {
             IOException ioe = new IOException("No content");
             throw ioe;
         }
-        return content;
+        return content.toString();
     }
 
     /**
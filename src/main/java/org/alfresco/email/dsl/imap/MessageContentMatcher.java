@@ -0,0 +1,264 @@
+package org.alfresco.email.dsl.imap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeUtility;
+
+/**
+ * Looks for a set of markers in the text of a message without loading the message into memory.
+ * The text parts are read as streams and all markers are searched at the same time with an Aho-Corasick automaton,
+ * so every character is looked at once. Reading stops as soon as every marker has been seen, which for IMAP messages
+ * also stops fetching the rest of the body from the server.
+ * As with the text built by {@link ImapUtil#getMessageContent}, the parts are read one after the other as one text.
+ */
+public class MessageContentMatcher
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final List<String> patterns = new ArrayList<>();
+    private final Map<String, String[]> sameLineMarkers = new HashMap<>();
+    private final Set<String> markers = new LinkedHashSet<>();
+    private final Set<Character> ignoredCharacters = new HashSet<>();
+
+    /**
+     * The characters are skipped while reading, e.g. ' ' to match the text with all spaces removed
+     */
+    public MessageContentMatcher ignoring(char... characters)
+    {
+        for (char character : characters)
+            ignoredCharacters.add(character);
+        return this;
+    }
+
+    /**
+     * The marker has to appear in the text
+     */
+    public MessageContentMatcher expect(String marker)
+    {
+        markers.add(marker);
+        patterns.add(marker);
+        return this;
+    }
+
+    /**
+     * The suffix has to appear after the prefix on the same line, like the regular expression <code>prefix.*suffix</code>.
+     * The marker is reported as <code>prefix.*suffix</code>.
+     */
+    public MessageContentMatcher expectOnSameLine(String prefix, String suffix)
+    {
+        String marker = prefix + ".*" + suffix;
+        markers.add(marker);
+        sameLineMarkers.put(marker, new String[] { prefix, suffix });
+        patterns.add(prefix);
+        patterns.add(suffix);
+        return this;
+    }
+
+    /**
+     * Reads the text parts of the message (or part) until all markers have been seen
+     *
+     * @return the markers that were not found
+     * @throws IOException if the message has no text
+     */
+    public Set<String> findMissing(Part message) throws MessagingException, IOException
+    {
+        Scan scan = new Scan(new Automaton(patterns));
+        scan(message, scan);
+        if (scan.characters == 0)
+            throw new IOException("No content");
+        Set<String> missing = new LinkedHashSet<>(markers);
+        missing.removeAll(scan.found);
+        return missing;
+    }
+
+    /**
+     * Reads the text until all markers have been seen, e.g. the text part read by {@link TextPartFetcher}
+     *
+     * @return the markers that were not found
+     * @throws IOException if the text is empty
+     */
+    public Set<String> findMissing(Reader text) throws IOException
+    {
+        Scan scan = new Scan(new Automaton(patterns));
+        scan(text, scan);
+        if (scan.characters == 0)
+            throw new IOException("No content");
+        Set<String> missing = new LinkedHashSet<>(markers);
+        missing.removeAll(scan.found);
+        return missing;
+    }
+
+    private void scan(Part part, Scan scan) throws MessagingException, IOException
+    {
+        if (scan.isComplete())
+            return;
+        if (part.isMimeType("multipart/*"))
+        {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount() && !scan.isComplete(); i++)
+                scan(multipart.getBodyPart(i), scan);
+        }
+        else if (part.isMimeType("text/*"))
+        {
+            try (InputStream inputStream = part.getInputStream(); Reader reader = new InputStreamReader(inputStream, getCharset(part)))
+            {
+                scan(reader, scan);
+            }
+        }
+    }
+
+    private void scan(Reader reader, Scan scan) throws IOException
+    {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while (!scan.isComplete() && (read = reader.read(buffer)) != -1)
+            for (int i = 0; i < read && !scan.isComplete(); i++)
+                if (!ignoredCharacters.contains(buffer[i]))
+                    scan.next(buffer[i]);
+    }
+
+    private static Charset getCharset(Part part) throws MessagingException
+    {
+        String charset = new ContentType(part.getContentType()).getParameter("charset");
+        if (charset == null)
+            return StandardCharsets.UTF_8;
+        try
+        {
+            return Charset.forName(MimeUtility.javaCharset(charset));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * State of one pass over the text
+     */
+    private class Scan
+    {
+        private final Automaton automaton;
+        private final Set<String> found = new HashSet<>();
+        private final Map<String, Long> prefixEndOnLine = new HashMap<>();
+        private int state = 0;
+        private long characters = 0;
+
+        private Scan(Automaton automaton)
+        {
+            this.automaton = automaton;
+        }
+
+        private boolean isComplete()
+        {
+            return found.size() == markers.size();
+        }
+
+        private void next(char character)
+        {
+            characters++;
+            if (character == '\n' || character == '\r')
+                prefixEndOnLine.clear();
+            state = automaton.next(state, character);
+            for (int pattern : automaton.outputs.get(state))
+                matched(patterns.get(pattern));
+        }
+
+        private void matched(String pattern)
+        {
+            if (markers.contains(pattern))
+                found.add(pattern);
+            for (Map.Entry<String, String[]> sameLine : sameLineMarkers.entrySet())
+            {
+                String[] parts = sameLine.getValue();
+                if (pattern.equals(parts[1]) && prefixEndOnLine.containsKey(sameLine.getKey())
+                        && prefixEndOnLine.get(sameLine.getKey()) <= characters - parts[1].length())
+                    found.add(sameLine.getKey());
+                if (pattern.equals(parts[0]))
+                    prefixEndOnLine.putIfAbsent(sameLine.getKey(), characters);
+            }
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over the patterns; state 0 is the root
+     */
+    private static class Automaton
+    {
+        private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+        private final List<Integer> failures = new ArrayList<>();
+        private final List<List<Integer>> outputs = new ArrayList<>();
+
+        private Automaton(List<String> patterns)
+        {
+            addState();
+            for (int i = 0; i < patterns.size(); i++)
+            {
+                int state = 0;
+                for (char character : patterns.get(i).toCharArray())
+                {
+                    Integer nextState = transitions.get(state).get(character);
+                    if (nextState == null)
+                    {
+                        nextState = addState();
+                        transitions.get(state).put(character, nextState);
+                    }
+                    state = nextState;
+                }
+                outputs.get(state).add(i);
+            }
+
+            Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+            while (!queue.isEmpty())
+            {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet())
+                {
+                    int child = transition.getValue();
+                    int failure = state == 0 ? 0 : next(failures.get(state), transition.getKey());
+                    failures.set(child, failure);
+                    outputs.get(child).addAll(outputs.get(failure));
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int addState()
+        {
+            transitions.add(new HashMap<>());
+            failures.add(0);
+            outputs.add(new ArrayList<>());
+            return transitions.size() - 1;
+        }
+
+        private int next(int state, char character)
+        {
+            while (true)
+            {
+                Integer nextState = transitions.get(state).get(character);
+                if (nextState != null)
+                    return nextState;
+                if (state == 0)
+                    return 0;
+                state = failures.get(state);
+            }
+        }
+    }
+}
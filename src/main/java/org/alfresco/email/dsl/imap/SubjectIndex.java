@@ -0,0 +1,153 @@
+package org.alfresco.email.dsl.imap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+
+/**
+ * Subject to UID index of one IMAP folder.
+ * The index is built on the {@link FolderSync} of the folder, so it is read once and then only updated with the
+ * messages that were added or expunged since, when the number of messages (EXISTS) of the folder changes. While the same
+ * {@link Folder} object stays open, lookups are answered from memory; for a newly opened folder object the message is
+ * resolved with one <code>UID FETCH</code>. A subject that is not found may belong to a message another client has
+ * just added, so a miss asks the server for changes with one NOOP and looks again, see {@link #resync(Folder)}.
+ * If several messages have the same subject, the one with the lowest UID
+ * wins, as in {@link ImapUtil#getMessageBySubject(Message[], String)}.
+ */
+public class SubjectIndex
+{
+    private final FolderSync folderSync = new FolderSync();
+    private Folder folder;
+    private long version = -1;
+    private final Map<String, Long> uidsBySubject = new HashMap<>();
+    private final Map<Long, Message> messagesByUid = new HashMap<>();
+
+    /**
+     * Returns the message with the given subject from the open folder, or null if there is none
+     */
+    public synchronized Message getMessage(Folder folder, String subject) throws MessagingException
+    {
+        refresh(folder);
+        Long uid = uidsBySubject.get(subject);
+        if (uid == null)
+        {
+            resync(folder);
+            uid = uidsBySubject.get(subject);
+            if (uid == null)
+                return null;
+        }
+
+        Message message = messagesByUid.get(uid);
+        if (message == null)
+        {
+            message = ((UIDFolder) folder).getMessageByUID(uid);
+            if (message != null)
+                messagesByUid.put(uid, message);
+        }
+        return message;
+    }
+
+    /**
+     * Returns the UID of the message with the given subject from the open folder, or null if there is none
+     */
+    public synchronized Long getUid(Folder folder, String subject) throws MessagingException
+    {
+        refresh(folder);
+        Long uid = uidsBySubject.get(subject);
+        if (uid != null)
+            return uid;
+        resync(folder);
+        return uidsBySubject.get(subject);
+    }
+
+    /**
+     * Returns the UIDs of all messages with one of the given subjects, in UID order. Every subject is in the result,
+     * with an empty list if no message has it.
+     */
+    public synchronized Map<String, List<Long>> getUids(Folder folder, Collection<String> subjects) throws MessagingException
+    {
+        refresh(folder);
+        if (!uidsBySubject.keySet().containsAll(subjects))
+            resync(folder);
+        Map<String, List<Long>> uids = new LinkedHashMap<>();
+        for (String subject : subjects)
+            uids.put(subject, new ArrayList<>());
+        for (Map.Entry<Long, String> entry : folderSync.getSubjects().entrySet())
+            if (uids.containsKey(entry.getValue()))
+                uids.get(entry.getValue()).add(entry.getKey());
+        return uids;
+    }
+
+    /**
+     * Returns the subjects of all messages from the open folder, as far as the connection has seen them; call
+     * {@link #resync(Folder)} first if the answer was unexpected
+     */
+    public synchronized Set<String> getSubjects(Folder folder) throws MessagingException
+    {
+        refresh(folder);
+        return Collections.unmodifiableSet(uidsBySubject.keySet());
+    }
+
+    /**
+     * Returns the current flags of the message with the given UID, or null if there is none.
+     * Only the flags changed since the last call are read, see {@link FolderSync#syncFlags}.
+     */
+    public synchronized Flags getFlags(Folder folder, long uid) throws MessagingException
+    {
+        folderSync.syncFlags(folder, String.valueOf(uid));
+        return folderSync.getFlags(uid);
+    }
+
+    /**
+     * Asks the server for the messages other clients added or expunged with one NOOP and updates the index, see
+     * {@link FolderSync#poll(Folder)}
+     */
+    public synchronized void resync(Folder folder) throws MessagingException
+    {
+        folderSync.poll(folder);
+        refresh(folder);
+    }
+
+    /**
+     * Forces a rebuild on the next lookup and stops watching the connection of the folder, see {@link FolderSync#detach()}
+     */
+    public synchronized void invalidate()
+    {
+        folderSync.invalidate();
+        folder = null;
+        version = -1;
+        uidsBySubject.clear();
+        messagesByUid.clear();
+    }
+
+    private void refresh(Folder folder) throws MessagingException
+    {
+        folderSync.syncMessages(folder);
+        if (folder != this.folder)
+        {
+            // UIDs are still valid for another folder object of the same mailbox, messages are not
+            this.folder = folder;
+            messagesByUid.clear();
+        }
+        if (folderSync.getVersion() == version)
+            return;
+
+        uidsBySubject.clear();
+        for (Map.Entry<Long, String> entry : folderSync.getSubjects().entrySet())
+            if (entry.getValue() != null)
+                uidsBySubject.putIfAbsent(entry.getValue(), entry.getKey());
+        messagesByUid.keySet().retainAll(uidsBySubject.values());
+        version = folderSync.getVersion();
+    }
+}
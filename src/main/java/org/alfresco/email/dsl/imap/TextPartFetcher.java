@@ -0,0 +1,156 @@
+package org.alfresco.email.dsl.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeUtility;
+
+import com.sun.mail.iap.ByteArray;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BODY;
+import com.sun.mail.imap.protocol.BODYSTRUCTURE;
+
+/**
+ * Reads only the text part of an IMAP message, e.g. the metadata block Alfresco renders for a document, without
+ * downloading the other parts such as the document itself.
+ * The part is found in the <code>BODYSTRUCTURE</code> of the message (text/plain first, then text/html, then any other
+ * text part that is not an attachment) and fetched with <code>BODY.PEEK[section]</code>, optionally only its first
+ * bytes with <code>BODY.PEEK[section]&lt;0.maxBytes&gt;</code>. PEEK leaves the \Seen flag as it is.
+ */
+public final class TextPartFetcher
+{
+    private static final String[] PREFERRED_SUBTYPES = { "plain", "html", null };
+
+    private TextPartFetcher()
+    {
+    }
+
+    /**
+     * Returns the decoded text part of the message, or null if the message has no text part
+     *
+     * @param message message of an open IMAP folder
+     * @param maxBytes how many bytes of the encoded part are fetched at most, 0 for the whole part
+     */
+    public static Reader fetchText(Message message, int maxBytes) throws MessagingException
+    {
+        int messageNumber = message.getMessageNumber();
+        TextPart part = (TextPart) ((IMAPFolder) message.getFolder()).doCommand(protocol -> {
+            BODYSTRUCTURE structure = protocol.fetchBodyStructure(messageNumber);
+            if (structure == null)
+                return null;
+            for (String subtype : PREFERRED_SUBTYPES)
+            {
+                String section = findSection(structure, "", subtype);
+                if (section != null)
+                {
+                    BODYSTRUCTURE textPart = getPart(structure, section);
+                    BODY body = maxBytes > 0 ? protocol.peekBody(messageNumber, section, 0, maxBytes)
+                            : protocol.peekBody(messageNumber, section);
+                    return body == null ? null : new TextPart(textPart, body);
+                }
+            }
+            return null;
+        });
+        if (part == null)
+            return null;
+
+        ByteArray content = part.body.getByteArray();
+        byte[] bytes = content == null ? new byte[0] : content.getNewBytes();
+        boolean truncated = maxBytes > 0 && bytes.length >= maxBytes;
+        return new InputStreamReader(decode(bytes, part.structure.encoding, truncated), getCharset(part.structure));
+    }
+
+    /**
+     * Returns the IMAP section number of the first text part with the subtype (any subtype for null), e.g.
+     * <code>1.1</code>; the body of a message that is not multipart is section <code>1</code>
+     */
+    private static String findSection(BODYSTRUCTURE structure, String parent, String subtype)
+    {
+        if (structure.isMulti())
+        {
+            for (int i = 0; i < structure.bodies.length; i++)
+            {
+                String section = findSection(structure.bodies[i], parent + (i + 1) + ".", subtype);
+                if (section != null)
+                    return section;
+            }
+            return null;
+        }
+        boolean attachment = "attachment".equalsIgnoreCase(structure.disposition);
+        if (!attachment && "text".equalsIgnoreCase(structure.type) && (subtype == null || subtype.equalsIgnoreCase(structure.subtype)))
+            return parent.isEmpty() ? "1" : parent.substring(0, parent.length() - 1);
+        return null;
+    }
+
+    private static BODYSTRUCTURE getPart(BODYSTRUCTURE structure, String section)
+    {
+        BODYSTRUCTURE part = structure;
+        if (!structure.isMulti())
+            return part;
+        for (String index : section.split("\\."))
+            part = part.bodies[Integer.parseInt(index) - 1];
+        return part;
+    }
+
+    /**
+     * Decodes the transfer encoding; a truncated part may end in the middle of an encoded group, which is dropped
+     */
+    private static InputStream decode(byte[] bytes, String encoding, boolean truncated) throws MessagingException
+    {
+        if ("base64".equalsIgnoreCase(encoding))
+        {
+            ByteArrayOutputStream base64 = new ByteArrayOutputStream(bytes.length);
+            for (byte b : bytes)
+                if (Character.isLetterOrDigit(b) || b == '+' || b == '/' || b == '=')
+                    base64.write(b);
+            byte[] clean = base64.toByteArray();
+            int length = clean.length - clean.length % 4;
+            return new ByteArrayInputStream(Base64.getDecoder().decode(new String(clean, 0, length, StandardCharsets.US_ASCII)));
+        }
+        int length = bytes.length;
+        if (truncated && "quoted-printable".equalsIgnoreCase(encoding))
+            for (int i = Math.max(0, length - 2); i < length; i++)
+                if (bytes[i] == '=')
+                {
+                    length = i;
+                    break;
+                }
+        InputStream raw = new ByteArrayInputStream(bytes, 0, length);
+        return encoding == null ? raw : MimeUtility.decode(raw, encoding);
+    }
+
+    private static Charset getCharset(BODYSTRUCTURE part)
+    {
+        String charset = part.cParams == null ? null : part.cParams.get("charset");
+        if (charset == null)
+            return StandardCharsets.UTF_8;
+        try
+        {
+            return Charset.forName(MimeUtility.javaCharset(charset));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    private static class TextPart
+    {
+        private final BODYSTRUCTURE structure;
+        private final BODY body;
+
+        private TextPart(BODYSTRUCTURE structure, BODY body)
+        {
+            this.structure = structure;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.alfresco.email.dsl.smtp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import jakarta.activation.DataSource;
+import jakarta.activation.FileTypeMap;
+import jakarta.mail.EncodingAware;
+
+import org.alfresco.utility.Utility;
+
+/**
+ * Attachments for {@link ComposeMessage#withAttachments(DataSource...)} whose data is produced while the message is
+ * written to the server, so an attachment of any size needs neither heap nor a temporary file.
+ * Every source names its transfer encoding, otherwise Jakarta Mail would read all the data once more to choose one.
+ */
+public final class AttachmentSources
+{
+    private static final String BASE64 = "base64";
+    private static final String SEVEN_BIT = "7bit";
+
+    private AttachmentSources()
+    {
+    }
+
+    /**
+     * @param content read once, while the message is sent, and closed afterwards; the message can be sent only once
+     */
+    public static DataSource fromStream(String fileName, String contentType, InputStream content) throws Exception
+    {
+        Utility.checkObjectIsInitialized(content, "content");
+        return new StreamSource(fileName, contentType, content);
+    }
+
+    /**
+     * The file is mapped into memory while the message is sent, so its pages are read by the operating system
+     * instead of being copied through the heap; the content type is taken from the file name
+     */
+    public static DataSource fromMappedFile(File file) throws Exception
+    {
+        Utility.checkObjectIsInitialized(file, "file");
+        return new MappedFileSource(file);
+    }
+
+    /**
+     * Generated data, the same for the same seed: random bytes, or for a <code>text/*</code> content type lines of
+     * printable ASCII sent without encoding. Every read of the source starts over, so a test can compare a received
+     * attachment with a new source of the same seed.
+     *
+     * @param size bytes of the attachment before encoding
+     */
+    public static DataSource synthetic(String fileName, String contentType, long size, long seed) throws Exception
+    {
+        Utility.checkObjectIsInitialized(contentType, "contentType");
+        if (size < 0)
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        return new SyntheticSource(fileName, contentType, size, seed);
+    }
+
+    private abstract static class ReadOnlySource implements DataSource, EncodingAware
+    {
+        private final String name;
+        private final String contentType;
+
+        ReadOnlySource(String name, String contentType)
+        {
+            this.name = name;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        @Override
+        public String getEncoding()
+        {
+            return BASE64;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException
+        {
+            throw new IOException(String.format("Attachment %s is read only", name));
+        }
+    }
+
+    private static class StreamSource extends ReadOnlySource
+    {
+        private InputStream content;
+
+        StreamSource(String name, String contentType, InputStream content)
+        {
+            super(name, contentType);
+            this.content = content;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException
+        {
+            if (content == null)
+                throw new IOException(String.format("Attachment %s was already read, a stream can be sent only once", getName()));
+            InputStream stream = content;
+            content = null;
+            return stream;
+        }
+    }
+
+    private static class MappedFileSource extends ReadOnlySource
+    {
+        private final File file;
+
+        MappedFileSource(File file)
+        {
+            super(file.getName(), FileTypeMap.getDefaultFileTypeMap().getContentType(file));
+            this.file = file;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new MappedInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        }
+    }
+
+    /**
+     * Reads the file through mappings of up to 1 GB, one at a time
+     */
+    private static class MappedInputStream extends InputStream
+    {
+        private static final long REGION = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private MappedByteBuffer region;
+
+        MappedInputStream(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return nextRegion() ? region.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (length == 0)
+                return 0;
+            if (!nextRegion())
+                return -1;
+            int read = Math.min(length, region.remaining());
+            region.get(buffer, offset, read);
+            return read;
+        }
+
+        private boolean nextRegion() throws IOException
+        {
+            if (region != null && region.hasRemaining())
+                return true;
+            if (position >= size)
+                return false;
+            long length = Math.min(REGION, size - position);
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            region = null;
+            channel.close();
+        }
+    }
+
+    private static class SyntheticSource extends ReadOnlySource
+    {
+        private final long size;
+        private final long seed;
+        private final boolean text;
+
+        SyntheticSource(String name, String contentType, long size, long seed)
+        {
+            super(name, contentType);
+            this.size = size;
+            this.seed = seed;
+            this.text = contentType.toLowerCase(Locale.ROOT).startsWith("text/");
+        }
+
+        @Override
+        public String getEncoding()
+        {
+            return text ? SEVEN_BIT : BASE64;
+        }
+
+        @Override
+        public InputStream getInputStream()
+        {
+            return new SyntheticInputStream(size, seed, text);
+        }
+    }
+
+    /**
+     * Bytes of a SplitMix64 sequence; as text, lines of 76 characters of a 64 character alphabet
+     */
+    private static class SyntheticInputStream extends InputStream
+    {
+        private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789 -".getBytes();
+        private static final int LINE_LENGTH = 76;
+
+        private final boolean text;
+        private long remaining;
+        private long state;
+        private long bits;
+        private int bitsLeft;
+        private int column;
+
+        SyntheticInputStream(long size, long seed, boolean text)
+        {
+            this.remaining = size;
+            this.state = seed;
+            this.text = text;
+        }
+
+        @Override
+        public int read()
+        {
+            if (remaining == 0)
+                return -1;
+            remaining--;
+            return nextByte();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+        {
+            if (length == 0)
+                return 0;
+            if (remaining == 0)
+                return -1;
+            int read = (int) Math.min(length, remaining);
+            for (int i = 0; i < read; i++)
+                buffer[offset + i] = (byte) nextByte();
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+
+        private int nextByte()
+        {
+            if (!text)
+                return nextBits(8);
+            if (column == LINE_LENGTH)
+            {
+                column++;
+                return '\r';
+            }
+            if (column > LINE_LENGTH)
+            {
+                column = 0;
+                return '\n';
+            }
+            column++;
+            return ALPHABET[nextBits(6)];
+        }
+
+        private int nextBits(int count)
+        {
+            if (bitsLeft < count)
+            {
+                bits = splitMix();
+                bitsLeft = 64;
+            }
+            bitsLeft -= count;
+            return (int) (bits >>> bitsLeft) & ((1 << count) - 1);
+        }
+
+        private long splitMix()
+        {
+            long z = state += 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
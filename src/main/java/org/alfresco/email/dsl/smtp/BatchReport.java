@@ -0,0 +1,164 @@
+package org.alfresco.email.dsl.smtp;
+
+import static org.alfresco.utility.report.log.Step.STEP;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.alfresco.email.SmtpWrapper;
+import org.testng.Assert;
+
+/**
+ * Outcome of {@link SmtpWrapper#sendBatch(Iterable)}: the status of every message and the throughput of the batch
+ */
+public class BatchReport
+{
+    private final SmtpWrapper smtpProtocol;
+    private final boolean pipelined;
+    private final List<MessageStatus> messages = new ArrayList<>();
+    private long elapsedNanos;
+
+    public BatchReport(SmtpWrapper smtpProtocol, boolean pipelined)
+    {
+        this.smtpProtocol = smtpProtocol;
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Status of one message of the batch
+     */
+    public static class MessageStatus
+    {
+        private final String subject;
+        private final List<String> rejectedRecipients;
+        private final String error;
+        private final long nanos;
+
+        public MessageStatus(String subject, List<String> rejectedRecipients, String error, long nanos)
+        {
+            this.subject = subject;
+            this.rejectedRecipients = rejectedRecipients;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        public String getSubject()
+        {
+            return subject;
+        }
+
+        /**
+         * @return the server accepted the message for at least one recipient
+         */
+        public boolean isSent()
+        {
+            return error == null;
+        }
+
+        public List<String> getRejectedRecipients()
+        {
+            return rejectedRecipients;
+        }
+
+        /**
+         * @return why the message was not sent, null if it was
+         */
+        public String getError()
+        {
+            return error;
+        }
+
+        public double getMillis()
+        {
+            return nanos / 1e6;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (!isSent())
+                return String.format("'%s' failed: %s", subject, error);
+            if (!rejectedRecipients.isEmpty())
+                return String.format("'%s' sent, rejected %s", subject, rejectedRecipients);
+            return String.format("'%s' sent", subject);
+        }
+    }
+
+    public void add(MessageStatus status)
+    {
+        messages.add(status);
+    }
+
+    public void finish(long elapsedNanos)
+    {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<MessageStatus> getMessages()
+    {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return the MAIL FROM and RCPT TO commands were pipelined
+     */
+    public boolean isPipelined()
+    {
+        return pipelined;
+    }
+
+    public int getSentCount()
+    {
+        int sent = 0;
+        for (MessageStatus status : messages)
+            if (status.isSent())
+                sent++;
+        return sent;
+    }
+
+    public int getFailedCount()
+    {
+        return messages.size() - getSentCount();
+    }
+
+    public double getElapsedSeconds()
+    {
+        return elapsedNanos / 1e9;
+    }
+
+    /**
+     * @return messages sent per second over the whole batch
+     */
+    public double getThroughput()
+    {
+        return elapsedNanos == 0 ? 0 : getSentCount() / getElapsedSeconds();
+    }
+
+    /**
+     * Verify every message of the batch was sent to all of its recipients
+     */
+    public SmtpWrapper assertAllSent()
+    {
+        STEP(String.format("SMTP: Assert all %d messages of the batch were sent", messages.size()));
+        List<MessageStatus> failed = new ArrayList<>();
+        for (MessageStatus status : messages)
+            if (!status.isSent() || !status.getRejectedRecipients().isEmpty())
+                failed.add(status);
+        Assert.assertTrue(failed.isEmpty(), String.format("Messages not sent: %s", failed));
+        return smtpProtocol;
+    }
+
+    public SmtpWrapper getProtocol()
+    {
+        return smtpProtocol;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ROOT, "%d of %d messages sent in %.3f s, %.1f messages/s%s", getSentCount(), messages.size(),
+                getElapsedSeconds(), getThroughput(), pipelined ? ", pipelined" : "");
+    }
+}
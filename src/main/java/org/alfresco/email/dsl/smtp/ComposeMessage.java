@@ -22,6 +22,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 public class ComposeMessage
 {
@@ -90,21 +91,67 @@ public class ComposeMessage
         return this;
     }
 
+    /**
+     * Attaches data that is read while the message is sent, e.g. from {@link AttachmentSources}
+     */
+    public ComposeMessage withAttachments(DataSource... sources) throws Exception
+    {
+        for (DataSource source : sources)
+        {
+            Utility.checkObjectIsInitialized(source, "source");
+            MimeBodyPart mimeBodyPart = new MimeBodyPart();
+            mimeBodyPart.setDataHandler(new DataHandler(source));
+            mimeBodyPart.setFileName(source.getName());
+            multipart.addBodyPart(mimeBodyPart);
+        }
+        return this;
+    }
+
+    /**
+     * @return the composed message, sent by the current user
+     */
+    public Message toMessage() throws Exception
+    {
+        message.setFrom(new InternetAddress(smtpProtocol.getCurrentUser().getUsername()));
+        message.setContent(multipart);
+        return message;
+    }
+
     public SmtpWrapper sendMail() throws Exception
     {
         Utility.checkObjectIsInitialized(transport, "transport");
-        message.setFrom(new InternetAddress(smtpProtocol.getCurrentUser().getUsername()));
+        toMessage();
         
         STEP(String.format("SMTP: Sending mail with following properties: FROM: %s, TO: %s, BODY: %s", 
                 ToStringBuilder.reflectionToString(message.getFrom(), ToStringStyle.MULTI_LINE_STYLE), 
                 ToStringBuilder.reflectionToString(message.getAllRecipients(), ToStringStyle.MULTI_LINE_STYLE),
                 bodyPart.getContent()));
 
-        message.setContent(multipart);
-        
         transport.sendMessage(message, message.getAllRecipients());
         if (smtpProtocol.getCurrentSpace() != null)
             smtpProtocol.setLastResource(Utility.buildPath(smtpProtocol.getCurrentSpace(), message.getSubject()));
         return smtpProtocol;
     }
+
+    /**
+     * Sends the message in the background, so a test can compose the next one while this one is sent; see
+     * {@link SmtpWrapper#sendMailAsync(Message)}
+     *
+     * @return completes when the server accepted the message
+     */
+    public CompletableFuture<SmtpWrapper> sendMailAsync() throws Exception
+    {
+        Utility.checkObjectIsInitialized(transport, "transport");
+        toMessage();
+
+        STEP(String.format("SMTP: Sending mail asynchronously: FROM: %s, TO: %s, SUBJECT: %s",
+                ToStringBuilder.reflectionToString(message.getFrom(), ToStringStyle.MULTI_LINE_STYLE),
+                ToStringBuilder.reflectionToString(message.getAllRecipients(), ToStringStyle.MULTI_LINE_STYLE),
+                message.getSubject()));
+
+        CompletableFuture<SmtpWrapper> sent = smtpProtocol.sendMailAsync(message);
+        if (smtpProtocol.getCurrentSpace() != null)
+            smtpProtocol.setLastResource(Utility.buildPath(smtpProtocol.getCurrentSpace(), message.getSubject()));
+        return sent;
+    }
 }
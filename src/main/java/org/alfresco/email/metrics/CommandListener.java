@@ -0,0 +1,14 @@
+package org.alfresco.email.metrics;
+
+/**
+ * Receives the commands a {@link CommandTimer} has timed
+ */
+public interface CommandListener
+{
+    /**
+     * @param command command name, e.g. <code>SELECT</code>, <code>UID FETCH</code> or <code>MAIL FROM</code>
+     * @param nanos time from sending the command to its final response
+     * @param failed the server rejected the command (IMAP NO or BAD, SMTP 4xx or 5xx)
+     */
+    void commandCompleted(String command, long nanos, boolean failed);
+}
@@ -0,0 +1,106 @@
+package org.alfresco.email.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+
+/**
+ * Latency histograms and error counters per command of one protocol, filled by the {@link CommandTimer}s of all
+ * connections. Recording is lock-free; the latencies are kept in microseconds with two significant digits.
+ */
+public class CommandMetrics implements CommandMetricsMXBean, CommandListener
+{
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final String protocol;
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+
+    public CommandMetrics(String protocol)
+    {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public void commandCompleted(String command, long nanos, boolean failed)
+    {
+        Command recorded = commands.computeIfAbsent(command, name -> new Command());
+        recorded.latencies.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        if (failed)
+            recorded.errors.increment();
+    }
+
+    @Override
+    public String getProtocol()
+    {
+        return protocol;
+    }
+
+    @Override
+    public Map<String, CommandStatistics> getCommands()
+    {
+        Map<String, CommandStatistics> statistics = new TreeMap<>();
+        for (Map.Entry<String, Command> entry : commands.entrySet())
+            statistics.put(entry.getKey(), new CommandStatistics(entry.getKey(), entry.getValue().latencies.copy(), entry.getValue().errors.sum()));
+        return statistics;
+    }
+
+    /**
+     * @return statistics of the command, or null if it was not sent
+     */
+    public CommandStatistics getCommand(String command)
+    {
+        return getCommands().get(command);
+    }
+
+    @Override
+    public long getCommandCount()
+    {
+        long count = 0;
+        for (Command command : commands.values())
+            count += command.latencies.getTotalCount();
+        return count;
+    }
+
+    @Override
+    public long getErrorCount()
+    {
+        long count = 0;
+        for (Command command : commands.values())
+            count += command.errors.sum();
+        return count;
+    }
+
+    /**
+     * @return e.g. <code>{"protocol":"IMAP","commands":{"SELECT":{"count":2,"errors":0,"meanMs":1.503,...}}}</code>
+     */
+    @Override
+    public String getJsonSnapshot()
+    {
+        StringBuilder json = new StringBuilder("{\"protocol\":\"").append(protocol).append("\",\"commands\":{");
+        boolean first = true;
+        for (CommandStatistics statistics : getCommands().values())
+        {
+            if (!first)
+                json.append(',');
+            json.append('"').append(statistics.getCommand().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":").append(statistics.toJson());
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    @Override
+    public void reset()
+    {
+        commands.clear();
+    }
+
+    private static class Command
+    {
+        private final ConcurrentHistogram latencies = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        private final LongAdder errors = new LongAdder();
+    }
+}
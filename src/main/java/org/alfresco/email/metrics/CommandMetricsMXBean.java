@@ -0,0 +1,31 @@
+package org.alfresco.email.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link CommandMetrics}, registered as
+ * <code>org.alfresco.email:type=CommandMetrics,protocol=IMAP</code> (or <code>SMTP</code>)
+ */
+public interface CommandMetricsMXBean
+{
+    String getProtocol();
+
+    /**
+     * @return statistics per command name
+     */
+    Map<String, CommandStatistics> getCommands();
+
+    long getCommandCount();
+
+    long getErrorCount();
+
+    /**
+     * @return all statistics as JSON, see {@link CommandMetrics#getJsonSnapshot()}
+     */
+    String getJsonSnapshot();
+
+    /**
+     * Drops all recorded values
+     */
+    void reset();
+}
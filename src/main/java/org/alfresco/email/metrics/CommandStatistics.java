@@ -0,0 +1,95 @@
+package org.alfresco.email.metrics;
+
+import java.util.Locale;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Snapshot of the latencies of one command; the latencies are in milliseconds
+ */
+public class CommandStatistics
+{
+    private final String command;
+    private final long count;
+    private final long errors;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    /**
+     * @param histogram latencies in microseconds
+     */
+    public CommandStatistics(String command, Histogram histogram, long errors)
+    {
+        this.command = command;
+        this.count = histogram.getTotalCount();
+        this.errors = errors;
+        this.meanMillis = count == 0 ? 0 : histogram.getMean() / 1000;
+        this.p50Millis = millis(histogram.getValueAtPercentile(50));
+        this.p90Millis = millis(histogram.getValueAtPercentile(90));
+        this.p99Millis = millis(histogram.getValueAtPercentile(99));
+        this.maxMillis = millis(histogram.getMaxValue());
+    }
+
+    public String getCommand()
+    {
+        return command;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    public double getMeanMillis()
+    {
+        return meanMillis;
+    }
+
+    public double getP50Millis()
+    {
+        return p50Millis;
+    }
+
+    public double getP90Millis()
+    {
+        return p90Millis;
+    }
+
+    public double getP99Millis()
+    {
+        return p99Millis;
+    }
+
+    public double getMaxMillis()
+    {
+        return maxMillis;
+    }
+
+    /**
+     * @return e.g. <code>{"count":12,"errors":0,"meanMs":1.204,"p50Ms":1.101,"p90Ms":1.703,"p99Ms":2.111,"maxMs":2.111}</code>
+     */
+    public String toJson()
+    {
+        return String.format(Locale.ROOT, "{\"count\":%d,\"errors\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                count, errors, meanMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+    }
+
+    @Override
+    public String toString()
+    {
+        return command + toJson();
+    }
+
+    private static double millis(long micros)
+    {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,67 @@
+package org.alfresco.email.metrics;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jakarta.mail.Session;
+
+/**
+ * Passes the commands timed on the connections of one {@link Session} to its {@link CommandListener}s.
+ * The timer is kept in the session properties, where the {@link TimedImapProtocol}s and the
+ * {@link org.alfresco.email.connection.PipeliningSmtpTransport}s of the session find it; a session without a timer
+ * is not timed.
+ */
+public class CommandTimer
+{
+    private static final String PROPERTY = CommandTimer.class.getName();
+
+    private final List<CommandListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Times the commands of the connections the session will open
+     */
+    public static CommandTimer install(Session session)
+    {
+        CommandTimer timer = new CommandTimer();
+        session.getProperties().put(PROPERTY, timer);
+        return timer;
+    }
+
+    /**
+     * @return the timer installed on the session, or null if there is none
+     */
+    public static CommandTimer of(Session session)
+    {
+        return of(session.getProperties());
+    }
+
+    /**
+     * @param properties the properties of a session
+     */
+    public static CommandTimer of(Properties properties)
+    {
+        Object timer = properties.get(PROPERTY);
+        return timer instanceof CommandTimer ? (CommandTimer) timer : null;
+    }
+
+    public void addListener(CommandListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CommandListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param command command name, e.g. <code>UID FETCH</code>
+     * @param nanos time from sending the command to its final response
+     */
+    public void completed(String command, long nanos, boolean failed)
+    {
+        for (CommandListener listener : listeners)
+            listener.commandCompleted(command, nanos, failed);
+    }
+}
@@ -0,0 +1,129 @@
+package org.alfresco.email.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jakarta.mail.NoSuchProviderException;
+import jakarta.mail.Session;
+
+import org.alfresco.email.EmailProperties;
+import org.alfresco.utility.LogFactory;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Per-command latency metrics of all IMAP and SMTP connections opened by the DSL, published as the local MBeans
+ * <code>org.alfresco.email:type=CommandMetrics,protocol=IMAP</code> and <code>...,protocol=SMTP</code>.
+ * The sessions are instrumented with a {@link CommandTimer} unless <code>email.metrics.enabled</code> is false: the IMAP
+ * sessions open {@link TimedImapStore}s and the SMTP sessions time their commands in
+ * {@link org.alfresco.email.connection.PipeliningSmtpTransport}. The protocol trace of Jakarta Mail is not used, so the
+ * metrics cost two clock reads per command, whatever the size of the messages.
+ */
+@Service
+public class ProtocolMetrics implements InitializingBean, DisposableBean
+{
+    static Logger LOG = LogFactory.getLogger();
+
+    public static final String OBJECT_NAME = "org.alfresco.email:type=CommandMetrics,protocol=%s";
+    public static final String IMAP = "IMAP";
+    public static final String SMTP = "SMTP";
+
+    @Autowired
+    EmailProperties emailProperties;
+
+    private final CommandMetrics imapMetrics = new CommandMetrics(IMAP);
+    private final CommandMetrics smtpMetrics = new CommandMetrics(SMTP);
+
+    public CommandMetrics getImapMetrics()
+    {
+        return imapMetrics;
+    }
+
+    public CommandMetrics getSmtpMetrics()
+    {
+        return smtpMetrics;
+    }
+
+    /**
+     * Records the commands of the connections the session will open; call it before the session opens a store
+     *
+     * @return the timer of the session, or null if the metrics are disabled
+     */
+    public CommandTimer instrumentImap(Session session) throws NoSuchProviderException
+    {
+        if (!emailProperties.isMetricsEnabled())
+            return null;
+        session.setProvider(TimedImapStore.IMAP_PROVIDER);
+        session.setProvider(TimedImapStore.IMAPS_PROVIDER);
+        CommandTimer timer = CommandTimer.install(session);
+        timer.addListener(imapMetrics);
+        return timer;
+    }
+
+    /**
+     * Records the commands of the transports of the session, which must be
+     * {@link org.alfresco.email.connection.PipeliningSmtpTransport}s
+     *
+     * @see #instrumentImap(Session)
+     */
+    public CommandTimer instrumentSmtp(Session session)
+    {
+        if (!emailProperties.isMetricsEnabled())
+            return null;
+        CommandTimer timer = CommandTimer.install(session);
+        timer.addListener(smtpMetrics);
+        return timer;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        register(imapMetrics);
+        register(smtpMetrics);
+    }
+
+    @Override
+    public void destroy()
+    {
+        unregister(imapMetrics);
+        unregister(smtpMetrics);
+    }
+
+    private void register(CommandMetrics metrics)
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            ObjectName name = new ObjectName(String.format(OBJECT_NAME, metrics.getProtocol()));
+            // another application context in the same JVM may have registered its metrics
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(metrics, name);
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Failed to register the {} command metrics MBean: {}", metrics.getProtocol(), e.getMessage());
+        }
+    }
+
+    private void unregister(CommandMetrics metrics)
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            ObjectName name = new ObjectName(String.format(OBJECT_NAME, metrics.getProtocol()));
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Failed to unregister the {} command metrics MBean: {}", metrics.getProtocol(), e.getMessage());
+        }
+    }
+}
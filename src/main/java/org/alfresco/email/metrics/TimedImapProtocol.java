@@ -0,0 +1,111 @@
+package org.alfresco.email.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Properties;
+
+import com.sun.mail.iap.Argument;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.util.MailLogger;
+
+/**
+ * IMAP connection that times every command from sending it to its tagged response, including the literals it sends
+ * or receives, and reports it to the {@link CommandTimer} of its session. The AUTHENTICATE mechanisms do not go
+ * through {@link #command(String, Argument)} and are timed as <code>AUTHENTICATE</code>.
+ */
+public class TimedImapProtocol extends IMAPProtocol
+{
+    private static final String UID = "UID ";
+    private static final String AUTHENTICATE = "AUTHENTICATE";
+    private static final String LOGOUT = "LOGOUT";
+
+    public TimedImapProtocol(String name, String host, int port, Properties props, boolean isSSL, MailLogger logger)
+            throws IOException, ProtocolException
+    {
+        super(name, host, port, props, isSSL, logger);
+    }
+
+    @Override
+    public synchronized Response[] command(String command, Argument args)
+    {
+        // also called by the constructor of the superclass, the timer is read from the session properties set before
+        CommandTimer timer = CommandTimer.of(props);
+        if (timer == null)
+            return super.command(command, args);
+        long started = System.nanoTime();
+        Response[] responses = super.command(command, args);
+        String name = commandName(command);
+        Response last = responses[responses.length - 1];
+        // the server may close the connection after the BYE of a LOGOUT, before its tagged OK
+        timer.completed(name, System.nanoTime() - started, !last.isOK() && !(last.isBYE() && LOGOUT.equals(name)));
+        return responses;
+    }
+
+    @Override
+    public synchronized void authlogin(String u, String p) throws ProtocolException
+    {
+        long started = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            super.authlogin(u, p);
+            failed = false;
+        }
+        finally
+        {
+            authenticated(started, failed);
+        }
+    }
+
+    @Override
+    public synchronized void authplain(String authzid, String u, String p) throws ProtocolException
+    {
+        long started = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            super.authplain(authzid, u, p);
+            failed = false;
+        }
+        finally
+        {
+            authenticated(started, failed);
+        }
+    }
+
+    @Override
+    public synchronized void authoauth2(String u, String p) throws ProtocolException
+    {
+        long started = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            super.authoauth2(u, p);
+            failed = false;
+        }
+        finally
+        {
+            authenticated(started, failed);
+        }
+    }
+
+    private void authenticated(long started, boolean failed)
+    {
+        CommandTimer timer = CommandTimer.of(props);
+        if (timer != null)
+            timer.completed(AUTHENTICATE, System.nanoTime() - started, failed);
+    }
+
+    /**
+     * @return e.g. <code>UID FETCH</code> for <code>UID FETCH 1:* (FLAGS)</code>, <code>SELECT</code> for <code>SELECT</code>
+     */
+    static String commandName(String command)
+    {
+        String upper = command.toUpperCase(Locale.ROOT);
+        int start = upper.startsWith(UID) ? UID.length() : 0;
+        int space = upper.indexOf(' ', start);
+        return space < 0 ? upper : upper.substring(0, space);
+    }
+}
@@ -0,0 +1,48 @@
+package org.alfresco.email.metrics;
+
+import java.io.IOException;
+
+import jakarta.mail.Provider;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+
+/**
+ * IMAP store whose connections, the store's own and those of its folders, are {@link TimedImapProtocol}s
+ */
+public class TimedImapStore extends IMAPStore
+{
+    public static final Provider IMAP_PROVIDER = new Provider(Provider.Type.STORE, "imap", TimedImapStore.class.getName(), "Alfresco",
+            null);
+    public static final Provider IMAPS_PROVIDER = new Provider(Provider.Type.STORE, "imaps", Ssl.class.getName(), "Alfresco", null);
+
+    public TimedImapStore(Session session, URLName url)
+    {
+        this(session, url, "imap", false);
+    }
+
+    protected TimedImapStore(Session session, URLName url, String name, boolean isSSL)
+    {
+        super(session, url, name, isSSL);
+    }
+
+    @Override
+    protected IMAPProtocol newIMAPProtocol(String host, int port) throws IOException, ProtocolException
+    {
+        return new TimedImapProtocol(name, host, port, session.getProperties(), isSSL, logger);
+    }
+
+    /**
+     * The IMAPS store, as {@link com.sun.mail.imap.IMAPSSLStore}
+     */
+    public static class Ssl extends TimedImapStore
+    {
+        public Ssl(Session session, URLName url)
+        {
+            super(session, url, "imaps", true);
+        }
+    }
+}
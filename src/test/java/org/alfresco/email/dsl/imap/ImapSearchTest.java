@@ -0,0 +1,82 @@
+package org.alfresco.email.dsl.imap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * The literals of {@link ImapSearch#requiredLiterals} go to a server-side <code>SEARCH SUBJECT</code>, so every one of
+ * them must be contained in every subject the expression matches
+ */
+public class ImapSearchTest
+{
+    @Test
+    public void literalsAroundWildcards()
+    {
+        assertLiterals("report-.*\\.pdf", "report-2017.pdf", "report-", ".pdf");
+    }
+
+    @Test
+    public void hexEscapeIsNotALiteral()
+    {
+        assertLiterals("ab\\x41cd", "abAcd", "ab", "cd");
+        assertLiterals("\\x{41}z", "Az", "z");
+    }
+
+    @Test
+    public void unicodeEscapeIsNotALiteral()
+    {
+        assertLiterals("caf\\u00e9 menu", "caf\u00e9 menu", "caf", " menu");
+    }
+
+    @Test
+    public void octalEscapeIsNotALiteral()
+    {
+        assertLiterals("\\0101-x", "A-x", "-x");
+    }
+
+    @Test
+    public void controlEscapeIsNotALiteral()
+    {
+        assertLiterals("\\cAbc", "\u0001bc", "bc");
+    }
+
+    @Test
+    public void namedBackReferenceIsNotALiteral()
+    {
+        Assert.assertEquals(ImapSearch.requiredLiterals("ab\\k<name>cd"), Arrays.asList("ab", "cd"));
+    }
+
+    @Test
+    public void propertyEscapeIsNotALiteral()
+    {
+        assertLiterals("\\p{Lu}ab", "Xab", "ab");
+        assertLiterals("\\P{L}ab", "1ab", "ab");
+        assertLiterals("\\pLab", "xab", "ab");
+    }
+
+    @Test
+    public void backReferenceIsNotALiteral()
+    {
+        assertLiterals("(a)\\1-b", "aa-b", "-b");
+        assertLiterals("(a)\\12b", "aa2b", "b");
+    }
+
+    @Test
+    public void predefinedClassIsNotALiteral()
+    {
+        assertLiterals("id\\d+-x", "id42-x", "id", "-x");
+    }
+
+    private static void assertLiterals(String regex, String matchingSubject, String... expected)
+    {
+        Assert.assertTrue(Pattern.compile(regex).matcher(matchingSubject).matches(), regex + " should match " + matchingSubject);
+        List<String> literals = ImapSearch.requiredLiterals(regex);
+        Assert.assertEquals(literals, Arrays.asList(expected), regex);
+        for (String literal : literals)
+            Assert.assertTrue(matchingSubject.contains(literal), String.format("%s: '%s' is not in '%s'", regex, literal, matchingSubject));
+    }
+}